@@ -0,0 +1,150 @@
+package com.padlocks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs the snippets of a file (--batch=path) or stdin (--batch) in one session, compiling the next one while
+// the current one runs when it is independent; timings go to stderr
+class BatchRunner {
+	private static final int SLOWEST_REPORTED = 5;
+
+	private final Parser parser = new Parser();
+	private final Evaluator evaluator = new Evaluator();
+	private final EvaluationRunner runner = new EvaluationRunner(evaluator);
+	private final ExecutorService compiles = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "repl-batch-compile");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private long prefetched;
+
+	static void start(String option) throws Exception {
+		BatchRunner batch = new BatchRunner();
+		batch.evaluator.startWarmUp();
+		int equals = option.indexOf('=');
+		try (BufferedReader in = equals == -1
+				? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+				: Files.newBufferedReader(Paths.get(option.substring(equals + 1)), StandardCharsets.UTF_8)) {
+			batch.run(in);
+		} finally {
+			batch.evaluator.shutdown();
+		}
+	}
+
+	void run(BufferedReader in) throws Exception {
+		List<String> snippets = new ArrayList<>();
+		List<Long> latencies = new ArrayList<>();
+		long start = System.nanoTime();
+
+		String current = readSnippet(in);
+		while (current != null) {
+			String next = readSnippet(in);
+
+			// Compile the next wrapper alongside this snippet; the session is idle, so its source can be generated now
+			Future<Void> ahead = null;
+			Callable<Void> job = next != null ? evaluator.prefetch(next) : null;
+			if (job != null && independent(current, next)) {
+				ahead = compiles.submit(job);
+				prefetched++;
+			}
+
+			long snippetStart = System.nanoTime();
+			runner.evaluate(current);
+			snippets.add(current);
+			latencies.add(System.nanoTime() - snippetStart);
+
+			if (ahead != null) {
+				try {
+					ahead.get();
+				} catch (ExecutionException e) {
+					// The snippet's own run reports any compile error
+				}
+			}
+			current = next;
+		}
+		report(snippets, latencies, System.nanoTime() - start);
+	}
+
+	// One line, or a block that runs until the braces, comment or text block its first line opens are closed
+	private String readSnippet(BufferedReader in) throws IOException {
+		String line;
+		do {
+			line = in.readLine();
+			if (line == null) {
+				return null;
+			}
+			line = line.trim();
+		} while (line.isEmpty());
+
+		JavaLexer tokens = JavaLexer.lex(line);
+		if (!tokens.isIncomplete()) {
+			return line;
+		}
+		StringBuilder block = new StringBuilder(line);
+		while (tokens.isIncomplete() && (line = in.readLine()) != null) {
+			line = line.trim();
+			block.append("\n").append(line);
+			tokens.append("\n").append(line);
+		}
+		return block.toString();
+	}
+
+	// Whether the next snippet can be compiled before the current one has run: the current one must leave
+	// classes, imports and Eval alone and declare nothing the next one refers to
+	private boolean independent(String current, String next) {
+		if (current.equals("clear();") || current.equals("clearAll();")) {
+			return false;
+		}
+		Snippet snippet = evaluator.classify(current);
+		if (snippet.getKind() == Snippet.Kind.IMPORT || snippet.getKind() == Snippet.Kind.CLASS
+				|| snippet.getKind() == Snippet.Kind.METHOD || snippet.isStaticField()) {
+			return false;
+		}
+		Set<String> declared = parser.declaredLocals(current).keySet();
+		return Collections.disjoint(declared, parser.referencedIdentifiers(next));
+	}
+
+	private void report(List<String> snippets, List<Long> latencies, long totalNanos) {
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		double seconds = totalNanos / 1e9;
+		System.err.println();
+		System.err.println(String.format("Batch: %d snippets in %.2f s, %.1f snippets/s, %d compiled ahead",
+			snippets.size(), seconds, snippets.size() / Math.max(seconds, 1e-9), prefetched));
+		if (sorted.isEmpty()) {
+			return;
+		}
+		System.err.println(String.format("Latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+			percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted.get(sorted.size() - 1) / 1e6));
+
+		List<Integer> slowest = new ArrayList<>();
+		for (int i = 0; i < snippets.size(); i++) {
+			slowest.add(i);
+		}
+		slowest.sort((a, b) -> Long.compare(latencies.get(b), latencies.get(a)));
+		System.err.println("Slowest snippets:");
+		for (int index : slowest.subList(0, Math.min(SLOWEST_REPORTED, slowest.size()))) {
+			String snippet = snippets.get(index).replace('\n', ' ');
+			System.err.println(String.format("  #%d %.2f ms  %s", index + 1, latencies.get(index) / 1e6,
+				snippet.length() > 60 ? snippet.substring(0, 57) + "..." : snippet));
+		}
+	}
+
+	private static double percentile(List<Long> sorted, int percent) {
+		int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(index, 0)) / 1e6;
+	}
+}
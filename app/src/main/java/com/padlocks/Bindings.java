@@ -0,0 +1,45 @@
+package com.padlocks;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+
+// Live values of stored variables, read and written back by generated snippets
+public class Bindings {
+	private final State state;
+
+	public Bindings(State state) {
+		this.state = state;
+	}
+
+	public Object get(String name) {
+		Variable variable = state.getStoredVariable(name);
+		if (variable == null) {
+			throw new IllegalStateException("No stored variable named " + name);
+		}
+		return variable.getValue();
+	}
+
+	public void set(String name, Object value) {
+		Variable variable = state.getStoredVariable(name);
+		if (variable == null) {
+			throw new IllegalStateException("No stored variable named " + name);
+		}
+		// Leave the declaration untouched when the snippet only read the variable
+		if (!Objects.equals(variable.getValue(), value)) {
+			variable.setValue(value);
+		}
+	}
+
+	// Stores a local declared by a snippet, together with its declaring statement, so later snippets can use it
+	public void declare(String name, String type, Object value, String input) {
+		state.addStoredVariable(name, new Variable(Variable.AccessLevel.DEFAULT, false, name, type, value, input));
+	}
+
+	// Called on loop back edges of emitted snippets so an interrupt from Ctrl-C or the timeout stops them
+	public static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted()) {
+			Thread.interrupted();
+			throw new CancellationException("Evaluation cancelled");
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.padlocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Opt-in on-disk cache of compiled bytecode shared between sessions, checksummed and evicted least recently used
+class BytecodeCache {
+	private static final int MAGIC = 0x4A52504C;
+	private static final int FORMAT = 1;
+	private static final String SUFFIX = ".classes";
+
+	private final Path dir;
+	private final long maxBytes;
+	private long hits;
+	private long misses;
+	private long corrupted;
+
+	static class Entry {
+		// Bytecode keyed by binary class name
+		final Map<String, byte[]> classes = new HashMap<>();
+		// Source file name that produced each class
+		final Map<String, String> units = new HashMap<>();
+	}
+
+	BytecodeCache(Path dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	Entry load(String key) {
+		Path file = dir.resolve(key + SUFFIX);
+		if (!Files.isRegularFile(file)) {
+			misses++;
+			return null;
+		}
+
+		try {
+			Entry entry = read(Files.readAllBytes(file));
+			// Mark the entry as recently used for eviction
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			hits++;
+			return entry;
+		} catch (IOException e) {
+			// Truncated or corrupted entry, drop it so it gets recompiled
+			corrupted++;
+			misses++;
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException ignored) {
+				// Another session may have removed it already
+			}
+			return null;
+		}
+	}
+
+	void store(String key, Entry entry) {
+		try {
+			Files.createDirectories(dir);
+			Path temp = Files.createTempFile(dir, key, ".tmp");
+			try {
+				Files.write(temp, write(entry));
+				try {
+					Files.move(temp, dir.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, dir.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			evict();
+		} catch (IOException e) {
+			// The cache is only an optimization, a failed write just means a later recompile
+			System.err.println("Could not write bytecode cache entry: " + e.getMessage());
+		}
+	}
+
+	String getStatistics() {
+		return String.format("Bytecode cache: %d hits, %d misses, %d corrupted", hits, misses, corrupted);
+	}
+
+	private void evict() {
+		File[] entries = dir.toFile().listFiles((d, name) -> name.endsWith(SUFFIX));
+		if (entries == null) {
+			return;
+		}
+
+		long total = 0;
+		for (File entry : entries) {
+			total += entry.length();
+		}
+
+		// Oldest first
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < entries.length && total > maxBytes; i++) {
+			long length = entries[i].length();
+			if (entries[i].delete()) {
+				total -= length;
+			}
+		}
+	}
+
+	private static byte[] write(Entry entry) throws IOException {
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		try (DataOutputStream payload = new DataOutputStream(payloadBytes)) {
+			payload.writeInt(entry.classes.size());
+			for (Map.Entry<String, byte[]> compiled : entry.classes.entrySet()) {
+				payload.writeUTF(compiled.getKey());
+				payload.writeUTF(entry.units.get(compiled.getKey()));
+				payload.writeInt(compiled.getValue().length);
+				payload.write(compiled.getValue());
+			}
+		}
+		byte[] body = payloadBytes.toByteArray();
+
+		ByteArrayOutputStream fileBytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(fileBytes)) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(checksum(body));
+			out.writeInt(body.length);
+			out.write(body);
+		}
+		return fileBytes.toByteArray();
+	}
+
+	private static Entry read(byte[] fileBytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(fileBytes));
+		if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+			throw new IOException("Not a bytecode cache entry");
+		}
+		long expectedChecksum = in.readLong();
+		byte[] body = new byte[checkedLength(in.readInt(), fileBytes.length)];
+		in.readFully(body);
+		if (checksum(body) != expectedChecksum) {
+			throw new IOException("Checksum mismatch");
+		}
+
+		Entry entry = new Entry();
+		DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body));
+		int count = payload.readInt();
+		for (int i = 0; i < count; i++) {
+			String className = payload.readUTF();
+			entry.units.put(className, payload.readUTF());
+			byte[] bytes = new byte[checkedLength(payload.readInt(), body.length)];
+			payload.readFully(bytes);
+			entry.classes.put(className, bytes);
+		}
+		return entry;
+	}
+
+	private static int checkedLength(int length, int available) throws IOException {
+		if (length < 0 || length > available) {
+			throw new IOException("Invalid length " + length);
+		}
+		return length;
+	}
+
+	private static long checksum(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+}
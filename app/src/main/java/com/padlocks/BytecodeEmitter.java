@@ -0,0 +1,1372 @@
+package com.padlocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates short statement lists over primitives straight into bytecode that behaves like the javac
+// StatementEvaluator wrapper; emit returns null for anything else
+class BytecodeEmitter {
+	static final String CLASS_NAME = "EmittedSnippet";
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+	private static final String BINDINGS = "com/padlocks/Bindings";
+	private static final int MAX_BRANCH = Short.MAX_VALUE;
+
+	private long emitted;
+	private long fallbacks;
+
+	// Thrown while translating when the snippet needs javac
+	private static class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	private enum Type {
+		INT("int", "I", "java/lang/Integer", "intValue", 0, 1),
+		LONG("long", "J", "java/lang/Long", "longValue", 1, 2),
+		DOUBLE("double", "D", "java/lang/Double", "doubleValue", 3, 2),
+		BOOLEAN("boolean", "Z", "java/lang/Boolean", "booleanValue", 0, 1);
+
+		final String name;
+		final String descriptor;
+		final String wrapper;
+		final String unboxMethod;
+		// Offset from the int form of typed opcodes such as iload, iadd and ineg
+		final int opcodeOffset;
+		final int size;
+
+		Type(String name, String descriptor, String wrapper, String unboxMethod, int opcodeOffset, int size) {
+			this.name = name;
+			this.descriptor = descriptor;
+			this.wrapper = wrapper;
+			this.unboxMethod = unboxMethod;
+			this.opcodeOffset = opcodeOffset;
+			this.size = size;
+		}
+
+		boolean isNumeric() {
+			return this != BOOLEAN;
+		}
+
+		boolean isIntegral() {
+			return this == INT || this == LONG;
+		}
+
+		static Type named(String name) {
+			for (Type type : values()) {
+				if (type.name.equals(name)) {
+					return type;
+				}
+			}
+			return null;
+		}
+
+		// Binary numeric promotion (JLS 5.6.2) restricted to int, long and double
+		static Type promote(Type left, Type right) {
+			return left == DOUBLE || right == DOUBLE ? DOUBLE : left == LONG || right == LONG ? LONG : INT;
+		}
+
+		boolean widensTo(Type target) {
+			return this == target || (isNumeric() && target.isNumeric() && promote(this, target) == target);
+		}
+	}
+
+	private static class Local {
+		final String name;
+		final Type type;
+		final int slot;
+		final boolean isFinal;
+
+		Local(String name, Type type, int slot, boolean isFinal) {
+			this.name = name;
+			this.type = type;
+			this.slot = slot;
+			this.isFinal = isFinal;
+		}
+	}
+
+	private enum ExprKind {
+		CONST, LOAD, CAST, UNARY, BINARY
+	}
+
+	private enum StmtKind {
+		DECLARE, ASSIGN, INCREMENT, BLOCK, IF, LOOP, BREAK, CONTINUE
+	}
+
+	// Expression nodes; operator applies to unary and binary ones
+	private static class Expr {
+		final ExprKind kind;
+		final Type type;
+		final String operator;
+		final Expr left;
+		final Expr right;
+		final Object value;
+		final Local local;
+
+		Expr(ExprKind kind, Type type, String operator, Expr left, Expr right, Object value, Local local) {
+			this.kind = kind;
+			this.type = type;
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+			this.value = value;
+			this.local = local;
+		}
+
+		boolean isConstant() {
+			switch (kind) {
+				case CONST:
+					return true;
+				case LOAD:
+					return false;
+				default:
+					return left.isConstant() && (right == null || right.isConstant());
+			}
+		}
+	}
+
+	// Statement nodes; a loop's body holds its init statements followed by the loop body
+	private static class Stmt {
+		final StmtKind kind;
+		final Local local;
+		final String operator;
+		final Expr expr;
+		final List<Stmt> body;
+		final List<Stmt> updates;
+
+		Stmt(StmtKind kind, Local local, String operator, Expr expr, List<Stmt> body, List<Stmt> updates) {
+			this.kind = kind;
+			this.local = local;
+			this.operator = operator;
+			this.expr = expr;
+			this.body = body;
+			this.updates = updates;
+		}
+	}
+
+	// Returns class file bytes for the snippet, or null if it has to be compiled by javac.
+	// bound maps referenced session variables to their types, declared maps new top-level locals to their statements.
+	byte[] emit(String input, Map<String, String> bound, Map<String, String> declared) {
+		try {
+			byte[] bytes = new Translator(input).translate(bound, declared, false);
+			emitted++;
+			return bytes;
+		} catch (Unsupported e) {
+			fallbacks++;
+			return null;
+		}
+	}
+
+	// As emit, for input that has not been classified yet: only a statement block is taken, not one declaration,
+	// assignment or increment the evaluator records itself, and only what is emitted is counted
+	byte[] emitBlock(String input, Map<String, String> bound, Map<String, String> declared) {
+		try {
+			byte[] bytes = new Translator(input).translate(bound, declared, true);
+			emitted++;
+			return bytes;
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	// Whether emitBlock would succeed, without counting the attempt
+	boolean canEmitBlock(String input, Map<String, String> bound, Map<String, String> declared) {
+		try {
+			new Translator(input).translate(bound, declared, true);
+			return true;
+		} catch (Unsupported e) {
+			return false;
+		}
+	}
+
+	String getStatistics() {
+		return String.format("Emitted snippets: %d, %d sent to javac", emitted, fallbacks);
+	}
+
+	private static class Translator {
+		private final List<String> tokens;
+		private int position;
+		private final Deque<Map<String, Local>> scopes = new ArrayDeque<>();
+		private final Map<String, Local> topLevel = new LinkedHashMap<>();
+		private int nextSlot = 1;
+		private int loopDepth;
+
+		Translator(String input) throws Unsupported {
+			this.tokens = tokenize(input);
+		}
+
+		byte[] translate(Map<String, String> bound, Map<String, String> declared, boolean blockOnly) throws Unsupported {
+			Map<String, Local> outer = new LinkedHashMap<>();
+			scopes.push(outer);
+			List<Local> boundLocals = new ArrayList<>();
+			for (Map.Entry<String, String> variable : bound.entrySet()) {
+				Type type = Type.named(variable.getValue());
+				if (type == null) {
+					throw UNSUPPORTED;
+				}
+				Local local = newLocal(variable.getKey(), type, false);
+				boundLocals.add(local);
+			}
+
+			List<Stmt> statements = new ArrayList<>();
+			while (position < tokens.size()) {
+				statements.add(parseStatement());
+			}
+			checkReachable(statements);
+			if (blockOnly && statements.size() == 1 && EnumSet.of(StmtKind.DECLARE, StmtKind.ASSIGN, StmtKind.INCREMENT)
+					.contains(statements.get(0).kind)) {
+				throw UNSUPPORTED;
+			}
+
+			// Top-level declarations must be exactly the ones the evaluator will record
+			if (!topLevel.keySet().equals(declared.keySet())) {
+				throw UNSUPPORTED;
+			}
+			for (Local local : topLevel.values()) {
+				if (!local.type.name.equals(new Parser().declaredType(declared.get(local.name)))) {
+					throw UNSUPPORTED;
+				}
+			}
+			return new CodeWriter(nextSlot).write(statements, boundLocals, new ArrayList<>(topLevel.values()), declared);
+		}
+
+		private Stmt parseStatement() throws Unsupported {
+			String token = peek();
+			switch (token) {
+				case "{": {
+					position++;
+					scopes.push(new HashMap<>());
+					List<Stmt> body = new ArrayList<>();
+					while (!peek().equals("}")) {
+						body.add(parseStatement());
+					}
+					position++;
+					scopes.pop();
+					checkReachable(body);
+					return new Stmt(StmtKind.BLOCK, null, null, null, body, null);
+				}
+				case ";":
+					position++;
+					return new Stmt(StmtKind.BLOCK, null, null, null, new ArrayList<>(), null);
+				case "if": {
+					position++;
+					Expr condition = parseCondition();
+					List<Stmt> branches = new ArrayList<>();
+					branches.add(parseScopedStatement());
+					if (peek().equals("else")) {
+						position++;
+						branches.add(parseScopedStatement());
+					}
+					return new Stmt(StmtKind.IF, null, null, condition, branches, null);
+				}
+				case "while": {
+					position++;
+					Expr condition = parseCondition();
+					return loop(new ArrayList<>(), condition, new ArrayList<>());
+				}
+				case "for":
+					return parseFor();
+				case "break":
+				case "continue":
+					position++;
+					if (loopDepth == 0) {
+						throw UNSUPPORTED;
+					}
+					expect(";");
+					return new Stmt(token.equals("break") ? StmtKind.BREAK : StmtKind.CONTINUE, null, null, null, null, null);
+				default:
+					if (token.equals("final") || Type.named(token) != null) {
+						List<Stmt> declarations = parseDeclaration();
+						expect(";");
+						return declarations.size() == 1 ? declarations.get(0) : new Stmt(StmtKind.BLOCK, null, null, null, declarations, null);
+					}
+					Stmt statement = parseStatementExpression();
+					expect(";");
+					return statement;
+			}
+		}
+
+		// Statements nested under if, while or for get their own scope, like a block
+		private Stmt parseScopedStatement() throws Unsupported {
+			if (Type.named(peek()) != null || peek().equals("final")) {
+				// A declaration is not allowed as the body of if or a loop
+				throw UNSUPPORTED;
+			}
+			scopes.push(new HashMap<>());
+			Stmt statement = parseStatement();
+			scopes.pop();
+			return statement;
+		}
+
+		private Stmt parseFor() throws Unsupported {
+			position++;
+			expect("(");
+			scopes.push(new HashMap<>());
+			List<Stmt> init = new ArrayList<>();
+			if (!peek().equals(";")) {
+				if (peek().equals("final") || Type.named(peek()) != null) {
+					init.addAll(parseDeclaration());
+				} else {
+					init.addAll(parseStatementExpressions());
+				}
+			}
+			expect(";");
+			Expr condition = null;
+			if (!peek().equals(";")) {
+				condition = parseExpression();
+				if (condition.type != Type.BOOLEAN) {
+					throw UNSUPPORTED;
+				}
+			}
+			expect(";");
+			List<Stmt> updates = peek().equals(")") ? new ArrayList<>() : parseStatementExpressions();
+			expect(")");
+			Stmt loop = loop(init, condition, updates);
+			scopes.pop();
+			return loop;
+		}
+
+		private Stmt loop(List<Stmt> init, Expr condition, List<Stmt> updates) throws Unsupported {
+			// Constant conditions change reachability rules; leave them to javac
+			if (condition == null || condition.isConstant()) {
+				throw UNSUPPORTED;
+			}
+			loopDepth++;
+			Stmt body = parseScopedStatement();
+			loopDepth--;
+			List<Stmt> parts = new ArrayList<>(init);
+			parts.add(body);
+			return new Stmt(StmtKind.LOOP, null, null, condition, parts, updates);
+		}
+
+		private Expr parseCondition() throws Unsupported {
+			expect("(");
+			Expr condition = parseExpression();
+			expect(")");
+			if (condition.type != Type.BOOLEAN) {
+				throw UNSUPPORTED;
+			}
+			return condition;
+		}
+
+		private List<Stmt> parseDeclaration() throws Unsupported {
+			boolean isFinal = peek().equals("final");
+			if (isFinal) {
+				position++;
+			}
+			Type type = Type.named(next());
+			if (type == null) {
+				throw UNSUPPORTED;
+			}
+			List<Stmt> declarations = new ArrayList<>();
+			do {
+				String name = next();
+				if (!isIdentifier(name) || resolve(name) != null) {
+					throw UNSUPPORTED;
+				}
+				// Declarations without an initializer need definite assignment analysis
+				expect("=");
+				Expr value = parseExpression();
+				if (!value.type.widensTo(type)) {
+					throw UNSUPPORTED;
+				}
+				Local local = newLocal(name, type, isFinal);
+				if (scopes.size() == 1) {
+					topLevel.put(name, local);
+				}
+				declarations.add(new Stmt(StmtKind.DECLARE, local, "=", value, null, null));
+			} while (accept(","));
+			return declarations;
+		}
+
+		private List<Stmt> parseStatementExpressions() throws Unsupported {
+			List<Stmt> statements = new ArrayList<>();
+			do {
+				statements.add(parseStatementExpression());
+			} while (accept(","));
+			return statements;
+		}
+
+		// Assignments and increments, the only expressions allowed as statements here
+		private Stmt parseStatementExpression() throws Unsupported {
+			String token = next();
+			if (token.equals("++") || token.equals("--")) {
+				return increment(assignable(next()), token);
+			}
+			Local local = assignable(token);
+			String operator = next();
+			if (operator.equals("++") || operator.equals("--")) {
+				return increment(local, operator);
+			}
+			if (!operator.endsWith("=") || operator.equals("==") || operator.equals("!=")
+					|| operator.equals("<=") || operator.equals(">=")) {
+				throw UNSUPPORTED;
+			}
+			Expr value = parseExpression();
+			String base = operator.substring(0, operator.length() - 1);
+			if (base.isEmpty()) {
+				if (!value.type.widensTo(local.type)) {
+					throw UNSUPPORTED;
+				}
+			} else {
+				// Compound assignment type-checks like the binary operator, then narrows back (JLS 15.26.2)
+				binary(base, new Expr(ExprKind.LOAD, local.type, null, null, null, null, local), value);
+			}
+			return new Stmt(StmtKind.ASSIGN, local, base, value, null, null);
+		}
+
+		private Stmt increment(Local local, String operator) throws Unsupported {
+			if (!local.type.isNumeric()) {
+				throw UNSUPPORTED;
+			}
+			return new Stmt(StmtKind.INCREMENT, local, operator, null, null, null);
+		}
+
+		private Local assignable(String name) throws Unsupported {
+			Local local = resolve(name);
+			if (local == null || local.isFinal) {
+				throw UNSUPPORTED;
+			}
+			return local;
+		}
+
+		private Expr parseExpression() throws Unsupported {
+			return parseBinary(0);
+		}
+
+		private static final String[][] LEVELS = {
+			{ "||" }, { "&&" }, { "|" }, { "^" }, { "&" }, { "==", "!=" }, { "<", ">", "<=", ">=" },
+			{ "<<", ">>", ">>>" }, { "+", "-" }, { "*", "/", "%" }
+		};
+
+		private Expr parseBinary(int level) throws Unsupported {
+			if (level == LEVELS.length) {
+				return parseUnary();
+			}
+			Expr left = parseBinary(level + 1);
+			while (true) {
+				String operator = peek();
+				boolean matches = false;
+				for (String candidate : LEVELS[level]) {
+					matches |= candidate.equals(operator);
+				}
+				if (!matches) {
+					return left;
+				}
+				position++;
+				left = binary(operator, left, parseBinary(level + 1));
+			}
+		}
+
+		private Expr parseUnary() throws Unsupported {
+			String token = peek();
+			if (token.equals("-") || token.equals("+") || token.equals("~") || token.equals("!")) {
+				position++;
+				Expr operand = parseUnary();
+				Type type = operand.type;
+				boolean valid = token.equals("!") ? type == Type.BOOLEAN : token.equals("~") ? type.isIntegral() : type.isNumeric();
+				if (!valid) {
+					throw UNSUPPORTED;
+				}
+				return new Expr(ExprKind.UNARY, type, token, operand, null, null, null);
+			}
+			if (token.equals("(") && Type.named(peek(1)) != null && peek(2).equals(")")) {
+				Type target = Type.named(peek(1));
+				position += 3;
+				Expr operand = parseUnary();
+				if ((target == Type.BOOLEAN) != (operand.type == Type.BOOLEAN)) {
+					throw UNSUPPORTED;
+				}
+				return new Expr(ExprKind.CAST, target, null, operand, null, null, null);
+			}
+			return parsePrimary();
+		}
+
+		private Expr parsePrimary() throws Unsupported {
+			String token = next();
+			if (token.equals("(")) {
+				Expr inner = parseExpression();
+				expect(")");
+				return inner;
+			}
+			if (token.equals("true") || token.equals("false")) {
+				return new Expr(ExprKind.CONST, Type.BOOLEAN, null, null, null, Boolean.valueOf(token), null);
+			}
+			if (!token.isEmpty() && Character.isDigit(token.charAt(0))) {
+				return number(token);
+			}
+			Local local = isIdentifier(token) ? resolve(token) : null;
+			// Method calls, fields, arrays and unknown names go to javac
+			if (local == null || peek().equals("(") || peek().equals(".") || peek().equals("[")) {
+				throw UNSUPPORTED;
+			}
+			return new Expr(ExprKind.LOAD, local.type, null, null, null, null, local);
+		}
+
+		private Expr number(String token) throws Unsupported {
+			String digits = token.replace("_", "");
+			char suffix = Character.toLowerCase(digits.charAt(digits.length() - 1));
+			try {
+				if (digits.startsWith("0x") || digits.startsWith("0X")) {
+					boolean isLong = suffix == 'l';
+					String hex = digits.substring(2, digits.length() - (isLong ? 1 : 0));
+					return isLong
+						? new Expr(ExprKind.CONST, Type.LONG, null, null, null, Long.parseUnsignedLong(hex, 16), null)
+						: new Expr(ExprKind.CONST, Type.INT, null, null, null, Integer.parseUnsignedInt(hex, 16), null);
+				}
+				if (token.endsWith("_") || suffix == 'f' || (digits.length() > 1 && digits.charAt(0) == '0' && Character.isDigit(digits.charAt(1)))
+						|| digits.startsWith("0b") || digits.startsWith("0B")) {
+					// Floats, octal and binary literals are left to javac
+					throw UNSUPPORTED;
+				}
+				if (suffix == 'd' || digits.contains(".") || digits.contains("e") || digits.contains("E")) {
+					double value = Double.parseDouble(suffix == 'd' ? digits.substring(0, digits.length() - 1) : digits);
+					if (Double.isInfinite(value)) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.CONST, Type.DOUBLE, null, null, null, value, null);
+				}
+				if (suffix == 'l') {
+					return new Expr(ExprKind.CONST, Type.LONG, null, null, null, Long.parseLong(digits.substring(0, digits.length() - 1)), null);
+				}
+				return new Expr(ExprKind.CONST, Type.INT, null, null, null, Integer.parseInt(digits), null);
+			} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+				throw UNSUPPORTED;
+			}
+		}
+
+		private static Expr binary(String operator, Expr left, Expr right) throws Unsupported {
+			Type leftType = left.type;
+			Type rightType = right.type;
+			switch (operator) {
+				case "&&":
+				case "||":
+					if (leftType != Type.BOOLEAN || rightType != Type.BOOLEAN) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.BINARY, Type.BOOLEAN, operator, left, right, null, null);
+				case "==":
+				case "!=":
+					if ((leftType == Type.BOOLEAN) != (rightType == Type.BOOLEAN)) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.BINARY, Type.BOOLEAN, operator, left, right, null, null);
+				case "<":
+				case ">":
+				case "<=":
+				case ">=":
+					if (!leftType.isNumeric() || !rightType.isNumeric()) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.BINARY, Type.BOOLEAN, operator, left, right, null, null);
+				case "<<":
+				case ">>":
+				case ">>>":
+					if (!leftType.isIntegral() || !rightType.isIntegral()) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.BINARY, leftType, operator, left, right, null, null);
+				case "&":
+				case "|":
+				case "^":
+					if (leftType == Type.BOOLEAN && rightType == Type.BOOLEAN) {
+						return new Expr(ExprKind.BINARY, Type.BOOLEAN, operator, left, right, null, null);
+					}
+					if (!leftType.isIntegral() || !rightType.isIntegral()) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.BINARY, Type.promote(leftType, rightType), operator, left, right, null, null);
+				case "+":
+				case "-":
+				case "*":
+				case "/":
+				case "%":
+					if (!leftType.isNumeric() || !rightType.isNumeric()) {
+						throw UNSUPPORTED;
+					}
+					return new Expr(ExprKind.BINARY, Type.promote(leftType, rightType), operator, left, right, null, null);
+				default:
+					throw UNSUPPORTED;
+			}
+		}
+
+		// javac rejects statements that follow one which cannot complete normally (JLS 14.22)
+		private static void checkReachable(List<Stmt> statements) throws Unsupported {
+			for (int i = 0; i < statements.size() - 1; i++) {
+				if (!canCompleteNormally(statements.get(i))) {
+					throw UNSUPPORTED;
+				}
+			}
+		}
+
+		private static boolean canCompleteNormally(Stmt statement) {
+			switch (statement.kind) {
+				case BREAK:
+				case CONTINUE:
+					return false;
+				case BLOCK:
+					return statement.body.isEmpty() || canCompleteNormally(statement.body.get(statement.body.size() - 1));
+				case IF:
+					return statement.body.size() == 1 || canCompleteNormally(statement.body.get(0)) || canCompleteNormally(statement.body.get(1));
+				default:
+					return true;
+			}
+		}
+
+		private Local newLocal(String name, Type type, boolean isFinal) throws Unsupported {
+			if (nextSlot + type.size > 255) {
+				throw UNSUPPORTED;
+			}
+			Local local = new Local(name, type, nextSlot, isFinal);
+			nextSlot += type.size;
+			scopes.peek().put(name, local);
+			return local;
+		}
+
+		private Local resolve(String name) {
+			for (Map<String, Local> scope : scopes) {
+				Local local = scope.get(name);
+				if (local != null) {
+					return local;
+				}
+			}
+			return null;
+		}
+
+		private static boolean isIdentifier(String token) {
+			return !token.isEmpty() && Character.isJavaIdentifierStart(token.charAt(0)) && Type.named(token) == null
+				&& !token.equals("true") && !token.equals("false");
+		}
+
+		private String peek() {
+			return peek(0);
+		}
+
+		private String peek(int offset) {
+			return position + offset < tokens.size() ? tokens.get(position + offset) : "";
+		}
+
+		private String next() throws Unsupported {
+			if (position >= tokens.size()) {
+				throw UNSUPPORTED;
+			}
+			return tokens.get(position++);
+		}
+
+		private boolean accept(String token) {
+			if (peek().equals(token)) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(String token) throws Unsupported {
+			if (!accept(token)) {
+				throw UNSUPPORTED;
+			}
+		}
+	}
+
+	private static final String[] OPERATORS = {
+		">>>=", "<<=", ">>=", ">>>", "++", "--", "&&", "||", "==", "!=", "<=", ">=", "+=", "-=", "*=", "/=", "%=",
+		"&=", "|=", "^=", "<<", ">>", "+", "-", "*", "/", "%", "&", "|", "^", "!", "~", "<", ">", "=",
+		"(", ")", "{", "}", ";", ","
+	};
+
+	// Splits the input into identifiers, numbers and operators; literals and other syntax are unsupported
+	private static List<String> tokenize(String input) throws Unsupported {
+		List<String> tokens = new ArrayList<>();
+		int i = 0;
+		outer:
+		while (i < input.length()) {
+			char c = input.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (input.startsWith("//", i)) {
+				int end = input.indexOf('\n', i);
+				i = end == -1 ? input.length() : end;
+			} else if (input.startsWith("/*", i)) {
+				int end = input.indexOf("*/", i + 2);
+				if (end == -1) {
+					throw UNSUPPORTED;
+				}
+				i = end + 2;
+			} else if (Character.isJavaIdentifierStart(c)) {
+				int end = i;
+				while (end < input.length() && Character.isJavaIdentifierPart(input.charAt(end))) {
+					end++;
+				}
+				tokens.add(input.substring(i, end));
+				i = end;
+			} else if (Character.isDigit(c) || (c == '.' && i + 1 < input.length() && Character.isDigit(input.charAt(i + 1)))) {
+				int end = i;
+				while (end < input.length() && (Character.isLetterOrDigit(input.charAt(end)) || input.charAt(end) == '_'
+						|| input.charAt(end) == '.' || ((input.charAt(end) == '+' || input.charAt(end) == '-')
+						&& (input.charAt(end - 1) == 'e' || input.charAt(end - 1) == 'E') && !input.startsWith("0x", i)))) {
+					end++;
+				}
+				String number = input.substring(i, end);
+				tokens.add(number.startsWith(".") ? "0" + number : number);
+				i = end;
+			} else {
+				for (String operator : OPERATORS) {
+					if (input.startsWith(operator, i)) {
+						tokens.add(operator);
+						i += operator.length();
+						continue outer;
+					}
+				}
+				throw UNSUPPORTED;
+			}
+		}
+		return tokens;
+	}
+
+	// Writes the class file: a public class with a single static eval(Bindings) method
+	private static class CodeWriter {
+		private final ConstantPool pool = new ConstantPool();
+		private byte[] code = new byte[256];
+		private int length;
+		private final Deque<Label[]> loops = new ArrayDeque<>();
+		private final int handlerSlot;
+		private int stack;
+		private int maxStack;
+
+		private static class Label {
+			int position = -1;
+			final List<Integer> branches = new ArrayList<>();
+		}
+
+		CodeWriter(int firstFreeSlot) {
+			this.handlerSlot = firstFreeSlot;
+		}
+
+		byte[] write(List<Stmt> statements, List<Local> bound, List<Local> declared, Map<String, String> sources) throws Unsupported {
+			for (Local local : bound) {
+				// local = (type) bindings.get("name"), unboxed through Number or Boolean
+				aload0();
+				ldc(pool.string(local.name), 1);
+				invoke(182, BINDINGS, "get", "(Ljava/lang/String;)Ljava/lang/Object;", -1);
+				String owner = local.type == Type.BOOLEAN ? "java/lang/Boolean" : "java/lang/Number";
+				op(192);
+				u2(pool.classRef(owner));
+				invoke(182, owner, local.type.unboxMethod, "()" + local.type.descriptor, local.type.size - 1);
+				store(local);
+			}
+
+			int start = length;
+			for (Stmt statement : statements) {
+				statement(statement);
+			}
+			int end = length;
+			writeBack(bound);
+			for (Local local : declared) {
+				// bindings.declare("name", "type", value, "statement")
+				aload0();
+				ldc(pool.string(local.name), 1);
+				ldc(pool.string(local.type.name), 1);
+				load(local);
+				box(local.type);
+				ldc(pool.string(sources.get(local.name)), 1);
+				invoke(182, BINDINGS, "declare", "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/Object;Ljava/lang/String;)V", -5);
+			}
+			op(177);
+
+			// Like the javac wrapper, write session variables back even when the snippet throws
+			int handler = -1;
+			if (declared.isEmpty() && !bound.isEmpty() && end > start) {
+				handler = length;
+				stack = 1;
+				maxStack = Math.max(maxStack, stack);
+				op(58);
+				u1(handlerSlot);
+				stack--;
+				writeBack(bound);
+				op(25);
+				u1(handlerSlot);
+				stack++;
+				op(191);
+			}
+			if (length > MAX_BRANCH) {
+				throw UNSUPPORTED;
+			}
+			return classFile(start, end, handler);
+		}
+
+		private void writeBack(List<Local> bound) {
+			for (Local local : bound) {
+				// bindings.set("name", value)
+				aload0();
+				ldc(pool.string(local.name), 1);
+				load(local);
+				box(local.type);
+				invoke(182, BINDINGS, "set", "(Ljava/lang/String;Ljava/lang/Object;)V", -3);
+			}
+		}
+
+		private void statement(Stmt statement) throws Unsupported {
+			switch (statement.kind) {
+				case DECLARE:
+					expression(statement.expr);
+					convert(statement.expr.type, statement.local.type);
+					store(statement.local);
+					break;
+				case ASSIGN:
+					assign(statement);
+					break;
+				case INCREMENT:
+					increment(statement.local, statement.operator.equals("++") ? 1 : -1);
+					break;
+				case BLOCK:
+					for (Stmt inner : statement.body) {
+						statement(inner);
+					}
+					break;
+				case IF: {
+					Label otherwise = new Label();
+					branch(statement.expr, false, otherwise);
+					statement(statement.body.get(0));
+					if (statement.body.size() > 1) {
+						Label end = new Label();
+						jump(167, end);
+						place(otherwise);
+						statement(statement.body.get(1));
+						place(end);
+					} else {
+						place(otherwise);
+					}
+					break;
+				}
+				case LOOP: {
+					List<Stmt> parts = statement.body;
+					for (Stmt init : parts.subList(0, parts.size() - 1)) {
+						statement(init);
+					}
+					Label top = new Label();
+					Label next = new Label();
+					Label exit = new Label();
+					place(top);
+					branch(statement.expr, false, exit);
+					loops.push(new Label[] { next, exit });
+					statement(parts.get(parts.size() - 1));
+					loops.pop();
+					place(next);
+					for (Stmt update : statement.updates) {
+						statement(update);
+					}
+					// Keeps the loop cancellable without a forced stop
+					invoke(184, BINDINGS, "checkInterrupted", "()V", 0);
+					jump(167, top);
+					place(exit);
+					break;
+				}
+				case BREAK:
+					jump(167, loops.peek()[1]);
+					break;
+				case CONTINUE:
+					jump(167, loops.peek()[0]);
+					break;
+				default:
+					throw UNSUPPORTED;
+			}
+		}
+
+		private void assign(Stmt statement) {
+			Local local = statement.local;
+			String operator = statement.operator;
+			Expr value = statement.expr;
+			if (operator.isEmpty()) {
+				expression(value);
+				convert(value.type, local.type);
+				store(local);
+				return;
+			}
+			// x op= v is x = (T) (x op v)
+			Type type = operator.equals("<<") || operator.equals(">>") || operator.equals(">>>") ? local.type
+				: local.type == Type.BOOLEAN ? Type.BOOLEAN : Type.promote(local.type, value.type);
+			load(local);
+			convert(local.type, type);
+			expression(value);
+			if (type == local.type && (operator.equals("<<") || operator.equals(">>") || operator.equals(">>>"))) {
+				if (value.type == Type.LONG) {
+					op(136);
+					stack--;
+				}
+			} else {
+				convert(value.type, type);
+			}
+			arithmetic(operator, type);
+			convert(type, local.type);
+			store(local);
+		}
+
+		private void increment(Local local, int delta) {
+			if (local.type == Type.INT) {
+				op(132);
+				u1(local.slot);
+				u1(delta & 0xFF);
+				return;
+			}
+			load(local);
+			constant(local.type, local.type == Type.LONG ? (Object) 1L : (Object) 1.0);
+			arithmetic(delta > 0 ? "+" : "-", local.type);
+			store(local);
+		}
+
+		private void expression(Expr expr) {
+			switch (expr.kind) {
+				case CONST:
+					constant(expr.type, expr.value);
+					break;
+				case LOAD:
+					load(expr.local);
+					break;
+				case CAST:
+					expression(expr.left);
+					convert(expr.left.type, expr.type);
+					break;
+				case UNARY:
+					if (expr.operator.equals("!")) {
+						expression(expr.left);
+						constant(Type.INT, 1);
+						op(130);
+						stack--;
+						break;
+					}
+					expression(expr.left);
+					if (expr.operator.equals("-")) {
+						op(116 + expr.type.opcodeOffset);
+					} else if (expr.operator.equals("~")) {
+						constant(expr.type, expr.type == Type.LONG ? (Object) (-1L) : (Object) (-1));
+						op(130 + expr.type.opcodeOffset);
+						stack -= expr.type.size;
+					}
+					break;
+				case BINARY:
+					binaryExpression(expr);
+			}
+		}
+
+		private void binaryExpression(Expr expr) {
+			String operator = expr.operator;
+			if (expr.type == Type.BOOLEAN && !operator.equals("&") && !operator.equals("|") && !operator.equals("^")) {
+				// Comparisons and && / || produce 0 or 1 through branches
+				Label isTrue = new Label();
+				Label end = new Label();
+				branch(expr, true, isTrue);
+				constant(Type.INT, 0);
+				jump(167, end);
+				stack--;
+				place(isTrue);
+				constant(Type.INT, 1);
+				place(end);
+				return;
+			}
+			if (operator.equals("<<") || operator.equals(">>") || operator.equals(">>>")) {
+				expression(expr.left);
+				expression(expr.right);
+				if (expr.right.type == Type.LONG) {
+					op(136);
+					stack--;
+				}
+				arithmetic(operator, expr.type);
+				return;
+			}
+			expression(expr.left);
+			convert(expr.left.type, expr.type);
+			expression(expr.right);
+			convert(expr.right.type, expr.type);
+			arithmetic(operator, expr.type);
+		}
+
+		// Applies a binary operator to two operands of the given type on the stack
+		private void arithmetic(String operator, Type type) {
+			int base;
+			switch (operator) {
+				case "+": base = 96; break;
+				case "-": base = 100; break;
+				case "*": base = 104; break;
+				case "/": base = 108; break;
+				case "%": base = 112; break;
+				case "<<": base = 120; break;
+				case ">>": base = 122; break;
+				case ">>>": base = 124; break;
+				case "&": base = 126; break;
+				case "|": base = 128; break;
+				default: base = 130;
+			}
+			boolean shift = base >= 120 && base <= 124;
+			// Shifts and bitwise operators only come in int and long forms
+			int offset = base >= 120 ? (type == Type.LONG ? 1 : 0) : type.opcodeOffset;
+			op(base + offset);
+			stack -= shift ? 1 : type.size;
+		}
+
+		// Emits a jump to target taken when the boolean expression evaluates to jumpIf
+		private void branch(Expr condition, boolean jumpIf, Label target) {
+			String operator = condition.operator;
+			if (condition.kind == ExprKind.UNARY && operator.equals("!")) {
+				branch(condition.left, !jumpIf, target);
+				return;
+			}
+			if (condition.kind == ExprKind.BINARY && (operator.equals("&&") || operator.equals("||"))) {
+				boolean and = operator.equals("&&");
+				if (jumpIf == and) {
+					// Both sides must agree with jumpIf; stop early if the left one does not
+					Label skip = new Label();
+					branch(condition.left, !jumpIf, skip);
+					branch(condition.right, jumpIf, target);
+					place(skip);
+				} else {
+					branch(condition.left, jumpIf, target);
+					branch(condition.right, jumpIf, target);
+				}
+				return;
+			}
+			if (condition.kind == ExprKind.BINARY && isComparison(operator)) {
+				Type type = condition.left.type == Type.BOOLEAN ? Type.INT : Type.promote(condition.left.type, condition.right.type);
+				expression(condition.left);
+				convert(condition.left.type == Type.BOOLEAN ? Type.INT : condition.left.type, type);
+				expression(condition.right);
+				convert(condition.right.type == Type.BOOLEAN ? Type.INT : condition.right.type, type);
+				String test = jumpIf ? operator : negate(operator);
+				if (type == Type.INT) {
+					jump(159 + conditionIndex(test), target);
+					stack -= 2;
+					return;
+				}
+				// lcmp, or dcmpg for < and <= and dcmpl otherwise so NaN compares false
+				op(type == Type.LONG ? 148 : operator.equals("<") || operator.equals("<=") ? 152 : 151);
+				stack -= type.size * 2 - 1;
+				jump(153 + conditionIndex(test), target);
+				stack--;
+				return;
+			}
+			expression(condition);
+			jump(jumpIf ? 154 : 153, target);
+			stack--;
+		}
+
+		private static boolean isComparison(String operator) {
+			return operator.equals("==") || operator.equals("!=") || operator.equals("<") || operator.equals(">")
+				|| operator.equals("<=") || operator.equals(">=");
+		}
+
+		private static String negate(String operator) {
+			switch (operator) {
+				case "==": return "!=";
+				case "!=": return "==";
+				case "<": return ">=";
+				case ">=": return "<";
+				case ">": return "<=";
+				default: return ">";
+			}
+		}
+
+		// Order of the eq, ne, lt, ge, gt, le variants of if<cond> and if_icmp<cond>
+		private static int conditionIndex(String operator) {
+			switch (operator) {
+				case "==": return 0;
+				case "!=": return 1;
+				case "<": return 2;
+				case ">=": return 3;
+				case ">": return 4;
+				default: return 5;
+			}
+		}
+
+		private void convert(Type from, Type to) {
+			if (from == to) {
+				return;
+			}
+			// i2l 133, i2d 135, l2i 136, l2d 138, d2i 142, d2l 143
+			if (from == Type.INT) {
+				op(to == Type.LONG ? 133 : 135);
+			} else if (from == Type.LONG) {
+				op(to == Type.INT ? 136 : 138);
+			} else {
+				op(to == Type.INT ? 142 : 143);
+			}
+			stack += to.size - from.size;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void constant(Type type, Object value) {
+			if (type == Type.BOOLEAN) {
+				value = (Boolean) value ? 1 : 0;
+				type = Type.INT;
+			}
+			if (type == Type.INT) {
+				int number = (Integer) value;
+				if (number >= -1 && number <= 5) {
+					op(3 + number);
+				} else if (number >= Byte.MIN_VALUE && number <= Byte.MAX_VALUE) {
+					op(16);
+					u1(number & 0xFF);
+				} else if (number >= Short.MIN_VALUE && number <= Short.MAX_VALUE) {
+					op(17);
+					u2(number & 0xFFFF);
+				} else {
+					ldc(pool.integer(number), 1);
+					return;
+				}
+				stack++;
+			} else if (type == Type.LONG) {
+				long number = (Long) value;
+				if (number == 0 || number == 1) {
+					op(9 + (int) number);
+				} else {
+					op(20);
+					u2(pool.longConstant(number));
+				}
+				stack += 2;
+			} else {
+				double number = (Double) value;
+				if (Double.doubleToRawLongBits(number) == 0L || number == 1.0) {
+					op(number == 0 ? 14 : 15);
+				} else {
+					op(20);
+					u2(pool.doubleConstant(number));
+				}
+				stack += 2;
+			}
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void box(Type type) {
+			invoke(184, type.wrapper, "valueOf", "(" + type.descriptor + ")L" + type.wrapper + ";", 1 - type.size);
+		}
+
+		private void load(Local local) {
+			op(21 + local.type.opcodeOffset);
+			u1(local.slot);
+			stack += local.type.size;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void store(Local local) {
+			op(54 + local.type.opcodeOffset);
+			u1(local.slot);
+			stack -= local.type.size;
+		}
+
+		private void aload0() {
+			op(42);
+			stack++;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void ldc(int index, int size) {
+			if (index < 256) {
+				op(18);
+				u1(index);
+			} else {
+				op(19);
+				u2(index);
+			}
+			stack += size;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		// stackChange is the net effect of the call, counting the receiver and arguments it pops
+		private void invoke(int opcode, String owner, String name, String descriptor, int stackChange) {
+			op(opcode);
+			u2(pool.methodRef(owner, name, descriptor));
+			stack += stackChange;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private void jump(int opcode, Label target) {
+			int at = length;
+			op(opcode);
+			if (target.position >= 0) {
+				u2(target.position - at);
+			} else {
+				target.branches.add(at);
+				u2(0);
+			}
+		}
+
+		private void place(Label label) {
+			label.position = length;
+			for (int at : label.branches) {
+				int offset = label.position - at;
+				code[at + 1] = (byte) (offset >> 8);
+				code[at + 2] = (byte) offset;
+			}
+		}
+
+		private void op(int opcode) {
+			u1(opcode);
+		}
+
+		private void u1(int value) {
+			if (length == code.length) {
+				code = Arrays.copyOf(code, length * 2);
+			}
+			code[length++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >> 8);
+			u1(value);
+		}
+
+		private byte[] classFile(int start, int end, int handler) {
+			try {
+				int thisClass = pool.classRef(CLASS_NAME);
+				int superClass = pool.classRef("java/lang/Object");
+				int methodName = pool.utf8("eval");
+				int methodDescriptor = pool.utf8("(L" + BINDINGS + ";)V");
+				int codeAttribute = pool.utf8("Code");
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(0xCAFEBABE);
+				out.writeShort(0);
+				// Java 5 class files are verified by type inference, so no stack map frames are needed
+				out.writeShort(49);
+				pool.write(out);
+				out.writeShort(0x0021);
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(0);
+				out.writeShort(0);
+
+				out.writeShort(1);
+				out.writeShort(0x0009);
+				out.writeShort(methodName);
+				out.writeShort(methodDescriptor);
+				out.writeShort(1);
+				byte[] instructions = Arrays.copyOf(code, length);
+				out.writeShort(codeAttribute);
+				out.writeInt(12 + instructions.length + (handler >= 0 ? 8 : 0));
+				out.writeShort(maxStack);
+				out.writeShort(handlerSlot + 1);
+				out.writeInt(instructions.length);
+				out.write(instructions);
+				if (handler >= 0) {
+					out.writeShort(1);
+					out.writeShort(start);
+					out.writeShort(end);
+					out.writeShort(handler);
+					out.writeShort(0);
+				} else {
+					out.writeShort(0);
+				}
+				out.writeShort(0);
+
+				out.writeShort(0);
+				return bytes.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private int count = 1;
+
+		int utf8(String value) {
+			return entry("Utf8:" + value, 1, () -> out.writeUTF(value));
+		}
+
+		int string(String value) {
+			int utf8 = utf8(value);
+			return entry("String:" + value, 1, () -> {
+				out.writeByte(8);
+				out.writeShort(utf8);
+			});
+		}
+
+		int integer(int value) {
+			return entry("Integer:" + value, 1, () -> {
+				out.writeByte(3);
+				out.writeInt(value);
+			});
+		}
+
+		int longConstant(long value) {
+			return entry("Long:" + value, 2, () -> {
+				out.writeByte(5);
+				out.writeLong(value);
+			});
+		}
+
+		int doubleConstant(double value) {
+			return entry("Double:" + Double.doubleToRawLongBits(value), 2, () -> {
+				out.writeByte(6);
+				out.writeDouble(value);
+			});
+		}
+
+		int classRef(String name) {
+			int utf8 = utf8(name);
+			return entry("Class:" + name, 1, () -> {
+				out.writeByte(7);
+				out.writeShort(utf8);
+			});
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			int nameAndType = entry("NameAndType:" + name + descriptor, 1, () -> {
+				out.writeByte(12);
+				out.writeShort(nameIndex);
+				out.writeShort(descriptorIndex);
+			});
+			return entry("Methodref:" + owner + "." + name + descriptor, 1, () -> {
+				out.writeByte(10);
+				out.writeShort(ownerIndex);
+				out.writeShort(nameAndType);
+			});
+		}
+
+		private interface EntryWriter {
+			void write() throws IOException;
+		}
+
+		// Utf8 entries are prefixed with their tag when written
+		private int entry(String key, int slots, EntryWriter writer) {
+			Integer existing = indexes.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			try {
+				if (key.startsWith("Utf8:")) {
+					out.writeByte(1);
+				}
+				writer.write();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			int index = count;
+			count += slots;
+			indexes.put(key, index);
+			return index;
+		}
+
+		void write(DataOutputStream target) throws IOException {
+			target.writeShort(count);
+			target.write(bytes.toByteArray());
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.padlocks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Method handles for resolved call targets, adapted to take their arguments as one Object[] and return Object
+class CallSiteCache {
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private final Map<Key, Entry> entries = new HashMap<>();
+	private long hits;
+	private long misses;
+
+	MethodHandle get(Class<?> receiver, String name, Class<?>[] argumentTypes) {
+		Entry entry = entries.get(new Key(receiver, name, argumentTypes));
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.handle;
+	}
+
+	void put(Class<?> receiver, String name, Class<?>[] argumentTypes, Class<?> declaringClass, MethodHandle handle) {
+		entries.put(new Key(receiver, name, argumentTypes), new Entry(declaringClass, handle));
+	}
+
+	// Lookups without a receiver scan every compiled class, so any new or replaced class can change their answer
+	void invalidate(Class<?> type) {
+		entries.entrySet().removeIf(entry -> entry.getKey().receiver == null
+			|| entry.getKey().receiver == type
+			|| entry.getValue().declaringClass == type
+			|| Arrays.asList(entry.getKey().argumentTypes).contains(type));
+	}
+
+	void clear() {
+		entries.clear();
+	}
+
+	String getStatistics() {
+		return String.format("Call sites: %d cached, %d hits, %d misses", entries.size(), hits, misses);
+	}
+
+	// argumentTypes are the types the call was resolved for; a variable arity call collects its trailing arguments
+	static MethodHandle spread(Method method, Class<?>[] argumentTypes) throws IllegalAccessException {
+		MethodHandle handle = collect(unreflect(method), method, argumentTypes);
+		int arity = argumentTypes.length + (Modifier.isStatic(method.getModifiers()) ? 0 : 1);
+		return handle.asType(MethodType.genericMethodType(arity)).asSpreader(Object[].class, arity);
+	}
+
+	// Instance method called without a receiver: each call runs on a new instance from the no-arg constructor
+	static MethodHandle spreadOnNewInstance(Method method, Class<?>[] argumentTypes) throws ReflectiveOperationException {
+		Constructor<?> constructor = MemberIndex.of(method.getDeclaringClass()).findConstructor(new Class<?>[0]);
+		if (constructor == null) {
+			throw new NoSuchMethodException(method.getDeclaringClass().getName() + ".<init>()");
+		}
+		constructor.setAccessible(true);
+		int arity = argumentTypes.length;
+		MethodHandle target = collect(unreflect(method), method, argumentTypes)
+			.asType(MethodType.genericMethodType(arity + 1));
+		MethodHandle receiver = LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+		return MethodHandles.foldArguments(target, receiver).asSpreader(Object[].class, arity);
+	}
+
+	static MethodHandle spread(Constructor<?> constructor, Class<?>[] argumentTypes) throws IllegalAccessException {
+		// Non-public constructors of session classes are allowed, as they were with newInstance
+		constructor.setAccessible(true);
+		int arity = argumentTypes.length;
+		return collect(LOOKUP.unreflectConstructor(constructor), constructor, argumentTypes)
+			.asType(MethodType.genericMethodType(arity))
+			.asSpreader(Object[].class, arity);
+	}
+
+	private static MethodHandle collect(MethodHandle handle, Executable target, Class<?>[] argumentTypes) {
+		// Unreflected varargs handles would otherwise collect on any asType that doesn't end in their array type
+		handle = handle.asFixedArity();
+		if (!MemberIndex.isVariableArityCall(target, argumentTypes)) {
+			return handle;
+		}
+		Class<?>[] parameters = target.getParameterTypes();
+		return handle.asCollector(parameters[parameters.length - 1], argumentTypes.length - parameters.length + 1);
+	}
+
+	private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+		try {
+			return LOOKUP.unreflect(method);
+		} catch (IllegalAccessException e) {
+			// Methods of non-public library classes are reached through the public type that declares them
+			Method declared = MemberIndex.accessible(method, method.getDeclaringClass());
+			if (declared != null) {
+				return LOOKUP.unreflect(declared);
+			}
+			// Public methods of a non-public session class live in another runtime package
+			method.setAccessible(true);
+			return LOOKUP.unreflect(method);
+		}
+	}
+
+	private static final class Key {
+		private final Class<?> receiver;
+		private final String name;
+		private final Class<?>[] argumentTypes;
+		private final int hash;
+
+		Key(Class<?> receiver, String name, Class<?>[] argumentTypes) {
+			this.receiver = receiver;
+			this.name = name;
+			this.argumentTypes = argumentTypes;
+			this.hash = 31 * (31 * System.identityHashCode(receiver) + name.hashCode()) + Arrays.hashCode(argumentTypes);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return receiver == key.receiver && name.equals(key.name) && Arrays.equals(argumentTypes, key.argumentTypes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+		private final Class<?> declaringClass;
+		private final MethodHandle handle;
+
+		Entry(Class<?> declaringClass, MethodHandle handle) {
+			this.declaringClass = declaringClass;
+			this.handle = handle;
+		}
+	}
+}
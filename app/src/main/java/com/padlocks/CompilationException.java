@@ -0,0 +1,114 @@
+package com.padlocks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+// A snippet that failed to parse or compile, with one Problem per javac error
+public class CompilationException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	// An unmodifiable list of problems, which serializes
+	@SuppressWarnings("serial")
+	private final List<Problem> problems;
+
+	public static class Problem implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+
+		private final String fileName;
+		private final long position;
+		private final long line;
+		private final long column;
+		private final String message;
+		private final boolean inInput;
+
+		Problem(String fileName, long position, long line, long column, String message, boolean inInput) {
+			this.fileName = fileName;
+			this.position = position;
+			this.line = line;
+			this.column = column;
+			this.message = message;
+			this.inInput = inInput;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public long getLine() {
+			return line;
+		}
+
+		public long getColumn() {
+			return column;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		// Whether line and column are relative to the user's input rather than the generated source
+		public boolean isInInput() {
+			return inInput;
+		}
+
+		@Override
+		public String toString() {
+			String location = inInput
+				? "line " + line + ", column " + column
+				: fileName + " line " + line + ", column " + column;
+			return location + ": " + message;
+		}
+	}
+
+	CompilationException(String summary, List<Problem> problems) {
+		super(summary);
+		this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+	}
+
+	public List<Problem> getProblems() {
+		return problems;
+	}
+
+	// Re-expresses the problems located between start and end in the source of a unit relative to the user's input,
+	// which that range was generated from; toInput maps an offset from start to the position in the input
+	public CompilationException relativeTo(String fileName, int start, int end, String input, IntUnaryOperator toInput) {
+		List<Problem> mapped = new ArrayList<>();
+		for (Problem problem : problems) {
+			if (problem.inInput || !fileName.equals(problem.fileName) || problem.position < start || problem.position > end) {
+				mapped.add(problem);
+				continue;
+			}
+
+			// Count lines and columns from the start of the input
+			int position = Math.min(toInput.applyAsInt((int) (problem.position - start)), input.length());
+			long line = 1;
+			long column = 1;
+			for (int i = 0; i < position; i++) {
+				if (input.charAt(i) == '\n') {
+					line++;
+					column = 1;
+				} else {
+					column++;
+				}
+			}
+			mapped.add(new Problem(problem.fileName, problem.position, line, column, problem.message, true));
+		}
+
+		CompilationException exception = new CompilationException(super.getMessage(), mapped);
+		exception.setStackTrace(getStackTrace());
+		return exception;
+	}
+
+	@Override
+	public String getMessage() {
+		StringBuilder message = new StringBuilder(super.getMessage());
+		for (Problem problem : problems) {
+			message.append("\n  ").append(problem);
+		}
+		return message.toString();
+	}
+}
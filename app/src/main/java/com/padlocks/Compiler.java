@@ -1,87 +1,652 @@
 package com.padlocks;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.Writer;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.tools.JavaCompiler;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileObject;
-import javax.tools.StandardJavaFileManager;
-import javax.tools.ToolProvider;
+
+import com.sun.source.util.JavacTask;
 
 public class Compiler {
+    // javac option sets; override with -Drepl.javac.snippet="..." and -Drepl.javac.class="..."
+    public enum Profile {
+        // Throwaway wrappers (ExpressionEvaluator, DynamicMethodEvaluator, Eval): skip annotation processing, debug info and lint
+        SNIPPET("repl.javac.snippet", "-proc:none -g:none -implicit:none -nowarn -Xlint:none"),
+        // User-defined classes keep annotation processing and full debug info for stack traces
+        CLASS("repl.javac.class", "-g");
+
+        private final List<String> options;
+
+        Profile(String property, String defaultOptions) {
+            String configured = System.getProperty(property, defaultOptions).trim();
+            this.options = configured.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(configured.split("\\s+")));
+        }
+
+        public List<String> getOptions() {
+            return options;
+        }
+    }
+
+    // Set -Drepl.dumpDir=<dir> to write every source and class file to disk for debugging
+    private static final String DUMP_DIR = System.getProperty("repl.dumpDir");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+    private static final String WARM_UP_CLASS = "ReplWarmUp";
+
+    // Set -Drepl.cacheDir=<dir> to share compiled bytecode between sessions, capped by -Drepl.cacheMaxBytes
+    private static final String CACHE_DIR = System.getProperty("repl.cacheDir");
+    private final BytecodeCache bytecodeCache = CACHE_DIR == null ? null
+        : new BytecodeCache(Paths.get(CACHE_DIR), Long.getLong("repl.cacheMaxBytes", 64L * 1024 * 1024));
+
     private final State state;
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final Map<String, byte[]> classBytes = new HashMap<>();
+
+    // Loader of the generation that defines the current version of each class
+    private final Map<String, MemoryClassLoader> classOwners = new HashMap<>();
+    private final List<WeakReference<MemoryClassLoader>> liveLoaders = new ArrayList<>();
+
+    // Dependency bookkeeping for incremental compilation, keyed by source file name
+    private final Map<String, Set<String>> unitClasses = new HashMap<>();
+    private final Map<String, Set<String>> identifiers = new HashMap<>();
+    private final Map<String, Long> unitGenerations = new HashMap<>();
+
+    // Wrapper classes already defined, keyed by source digest; -Drepl.snippetCacheSize sets the capacity
+    private final SnippetCache snippetCache = new SnippetCache(Integer.getInteger("repl.snippetCacheSize", 256));
+
+    // javac and warm file managers are shared with the other sessions in the JVM
+    private final CompilerPool pool;
+
+    // Timing of every javac invocation
+    private long compileCount;
+    private long compileNanos;
+    private long unitsCompiled;
+    private long parseCount;
+    private long parseNanos;
+    private long syntaxRejections;
+    private final long[] profileCompiles = new long[Profile.values().length];
+    private final long[] profileNanos = new long[Profile.values().length];
+    private long generation;
 
     public Compiler(State state) {
+        this(state, CompilerPool.shared());
+    }
+
+    Compiler(State state, CompilerPool pool) {
         this.state = state;
+        this.pool = pool;
     }
 
     public void compile(String fileName, String code) throws Exception {
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		compile(fileName, code, Profile.CLASS);
+	}
+
+	public void compile(String fileName, String code, Profile profile) throws Exception {
+		compile(Collections.singletonMap(fileName, code), profile);
+	}
+
+	// Compiles several units, e.g. every class of one paste, in a single javac task and loader
+	public synchronized void compile(Map<String, String> changedSources, Profile profile) throws Exception {
+		// Keep the sources in memory, remembering the previous versions in case compilation fails
+		Map<String, String> previousSources = new HashMap<>();
+		Map<String, Set<String>> previousIdentifiers = new HashMap<>();
+		for (Map.Entry<String, String> changed : changedSources.entrySet()) {
+			previousSources.put(changed.getKey(), sources.put(changed.getKey(), changed.getValue()));
+			previousIdentifiers.put(changed.getKey(), identifiers.put(changed.getKey(), identifiersOf(changed.getValue())));
+		}
+
+		// Only the changed units and the units that depend on them need recompiling
+		Set<String> units = affectedUnits(changedSources.keySet());
+
+		// Hide their stale bytecode so javac does not resolve against it
+		Map<String, byte[]> staleBytes = new HashMap<>();
+		for (String unit : units) {
+			for (String className : unitClasses.getOrDefault(unit, Collections.emptySet())) {
+				byte[] bytes = classBytes.remove(className);
+				if (bytes != null) {
+					staleBytes.put(className, bytes);
+				}
+			}
+		}
+
+		// A previous session may already have compiled exactly these sources
+		String cacheKey = bytecodeCache == null ? null : persistentKey(units, profile);
+		BytecodeCache.Entry cached = cacheKey == null ? null : bytecodeCache.load(cacheKey);
+
+		Map<String, String> outputs;
+		if (cached != null) {
+			classBytes.putAll(cached.classes);
+			outputs = cached.units;
+		} else {
+			List<JavaFileObject> fileObjects = new ArrayList<>();
+			for (String unit : units) {
+				fileObjects.add(MemoryFileManager.source(unit, sources.get(unit)));
+			}
+			DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+			boolean syntaxValid;
+			boolean compilationSuccess = false;
+			MemoryFileManager fileManager = pool.acquire(classBytes);
+			try {
+				JavacTask task = (JavacTask) pool.getJavac().getTask(null, fileManager, diagnostics, profile.getOptions(), null, fileObjects);
+
+				// Parse on its own first so syntax errors are rejected before attribution and code generation
+				long start = System.nanoTime();
+				task.parse();
+				parseNanos += System.nanoTime() - start;
+				parseCount++;
+				syntaxValid = !hasErrors(diagnostics);
+				if (syntaxValid) {
+					// Carry on with the already parsed trees
+					task.generate();
+					compilationSuccess = !hasErrors(diagnostics);
+					long elapsed = System.nanoTime() - start;
+					compileNanos += elapsed;
+					compileCount++;
+					unitsCompiled += units.size();
+					profileNanos[profile.ordinal()] += elapsed;
+					profileCompiles[profile.ordinal()]++;
+				} else {
+					syntaxRejections++;
+				}
+				outputs = fileManager.drainOutputs();
+			} finally {
+				pool.release(fileManager);
+			}
+
+			if (!compilationSuccess) {
+				CompilationException failure = compilationException(syntaxValid ? "Compilation failed." : "Syntax error.",
+					diagnostics);
+
+				// Drop partial output and put the previous state back
+				classBytes.keySet().removeAll(outputs.keySet());
+				classBytes.putAll(staleBytes);
+				for (Map.Entry<String, String> previous : previousSources.entrySet()) {
+					if (previous.getValue() == null) {
+						sources.remove(previous.getKey());
+						identifiers.remove(previous.getKey());
+					} else {
+						sources.put(previous.getKey(), previous.getValue());
+						identifiers.put(previous.getKey(), previousIdentifiers.get(previous.getKey()));
+					}
+				}
+				throw failure;
+			}
+
+			if (cacheKey != null) {
+				BytecodeCache.Entry entry = new BytecodeCache.Entry();
+				for (Map.Entry<String, String> output : outputs.entrySet()) {
+					entry.classes.put(output.getKey(), classBytes.get(output.getKey()));
+					entry.units.put(output.getKey(), output.getValue());
+				}
+				bytecodeCache.store(cacheKey, entry);
+			}
+		}
+
+		// Remember which classes each recompiled unit produced
+		for (String unit : units) {
+			unitClasses.put(unit, new HashSet<>());
+			unitGenerations.put(unit, ++generation);
+		}
+		for (Map.Entry<String, String> output : outputs.entrySet()) {
+			unitClasses.get(output.getValue()).add(output.getKey());
+		}
+		defineGeneration(units, outputs.keySet());
+
+		// Classes of recompiled dependents that were already loaded move to the new generation
+		for (String unit : units) {
+			for (String className : unitClasses.get(unit)) {
+				if (!changedSources.containsKey(unit) && state.getCompiledClass(className) != null) {
+					loadCompiledClass(className, state.getClassSource(className));
+				}
+			}
+		}
+
+		if (DUMP_DIR != null) {
+			dumpCompiledFiles();
+		}
+	}
+
+	private static boolean hasErrors(DiagnosticCollector<JavaFileObject> diagnostics) {
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static CompilationException compilationException(String summary, DiagnosticCollector<JavaFileObject> diagnostics) {
+		List<CompilationException.Problem> problems = new ArrayList<>();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				String fileName = diagnostic.getSource() == null ? null : MemoryFileManager.fileName(diagnostic.getSource());
+				problems.add(new CompilationException.Problem(fileName, diagnostic.getPosition(), diagnostic.getLineNumber(),
+					diagnostic.getColumnNumber(), diagnostic.getMessage(Locale.getDefault()), false));
+			}
+		}
+		return new CompilationException(summary, problems);
+	}
+
+	// Gives the classes of one javac task a loader of their own, linked to the current owners of their dependencies
+	private void defineGeneration(Set<String> units, Set<String> classNames) {
+		Map<String, byte[]> generationBytes = new HashMap<>();
+		for (String className : classNames) {
+			generationBytes.put(className, classBytes.get(className));
+		}
+
+		MemoryClassLoader classLoader = newLoader(generationBytes, referencedUnits(units));
+		for (String className : classNames) {
+			classOwners.put(className, classLoader);
+		}
+
+		// Cached wrappers compiled against the superseded classes can never be hit again
+		for (String unit : units) {
+			snippetCache.invalidate(unit);
+		}
+	}
+
+	// Loader for the given classes that resolves the classes of the units they were compiled against from their current owners
+	private MemoryClassLoader newLoader(Map<String, byte[]> bytes, Set<String> dependencies) {
+		Map<String, ClassLoader> dependencyLoaders = new HashMap<>();
+		for (String unit : dependencies) {
+			for (String className : unitClasses.getOrDefault(unit, Collections.emptySet())) {
+				ClassLoader owner = classOwners.get(className);
+				if (owner != null) {
+					dependencyLoaders.put(className, owner);
+				}
+			}
+		}
+
+		MemoryClassLoader classLoader = new MemoryClassLoader(bytes, dependencyLoaders, Compiler.class.getClassLoader());
+		// Forget loaders that have been garbage collected, so the list only grows with the live ones
+		liveLoaders.removeIf(reference -> reference.get() == null);
+		liveLoaders.add(new WeakReference<>(classLoader));
+		return classLoader;
+	}
+
+	// Digest of the sources being compiled, everything they compile against, the JDK and the compiler options
+	private String persistentKey(Set<String> units, Profile profile) {
+		MessageDigest digest = newDigest();
+		digest.update((System.getProperty("java.vm.vendor") + " " + System.getProperty("java.vm.version") + "\n").getBytes(StandardCharsets.UTF_8));
+		digest.update((profile.getOptions() + "\n" + getEnvironment() + "\n").getBytes(StandardCharsets.UTF_8));
+		for (String unit : units) {
+			digest.update((unit + "\n" + sources.get(unit) + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+
+		// Units resolved from bytecode are identified by their own sources and dependencies
+		Set<String> dependencies = new TreeSet<>();
+		Set<String> frontier = referencedUnits(units);
+		while (!frontier.isEmpty()) {
+			dependencies.addAll(frontier);
+			frontier = referencedUnits(frontier);
+			frontier.removeAll(dependencies);
+			frontier.removeAll(units);
+		}
+		for (String unit : dependencies) {
+			digest.update((unit + "\n" + sources.get(unit) + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return toHex(digest.digest());
+	}
+
+	// Units outside the given set that declare a class the set refers to
+	private Set<String> referencedUnits(Set<String> units) {
+		Set<String> referencedIdentifiers = new HashSet<>();
+		for (String unit : units) {
+			referencedIdentifiers.addAll(identifiers.get(unit));
+		}
+		return referencedUnits(referencedIdentifiers, units);
+	}
+
+	private Set<String> referencedUnits(Set<String> referencedIdentifiers, Set<String> excluded) {
+		Set<String> referenced = new TreeSet<>();
+		for (String unit : sources.keySet()) {
+			if (!excluded.contains(unit) && !Collections.disjoint(referencedIdentifiers, declaredNames(unit))) {
+				referenced.add(unit);
+			}
+		}
+		return referenced;
+	}
+
+	// Collects the given units plus every unit that transitively refers to a class declared in them
+	private Set<String> affectedUnits(Set<String> changed) {
+		Set<String> affected = new LinkedHashSet<>(changed);
+		Deque<String> pending = new ArrayDeque<>(changed);
+
+		while (!pending.isEmpty()) {
+			Set<String> declaredNames = declaredNames(pending.poll());
+			for (String unit : sources.keySet()) {
+				if (!affected.contains(unit) && !Collections.disjoint(identifiers.get(unit), declaredNames)) {
+					affected.add(unit);
+					pending.add(unit);
+				}
+			}
+		}
+		return affected;
+	}
 
-		// Create the directory if it doesn't exist
-		File dir = new File("./tmp/");
-		if (!dir.exists()) {
-			dir.mkdirs();
+	// Simple names of the top-level classes a unit declares, including those of its last successful compile
+	private Set<String> declaredNames(String unit) {
+		Set<String> names = new HashSet<>();
+		String baseName = unit.substring(unit.lastIndexOf('/') + 1).replace(".java", "");
+		names.add(baseName);
+		for (String className : unitClasses.getOrDefault(unit, Collections.emptySet())) {
+			String simpleName = className.substring(className.lastIndexOf('.') + 1);
+			int dollar = simpleName.indexOf('$');
+			names.add(dollar == -1 ? simpleName : simpleName.substring(0, dollar));
 		}
+		return names;
+	}
 
-		// Write the code to a file
-		File sourceFile = new File(dir, fileName);
-		try (Writer writer = new FileWriter(sourceFile)) {
-			writer.write(code);
+	private static Set<String> identifiersOf(String code) {
+		Set<String> found = new HashSet<>();
+		Matcher matcher = IDENTIFIER.matcher(code);
+		while (matcher.find()) {
+			found.add(matcher.group());
 		}
+		return found;
+	}
 
-		// Collect all Java files in the tmp directory for compilation
-		File[] allJavaFiles = dir.listFiles((d, name) -> name.endsWith(".java"));
+	// Class path and imports; snippet cache keys depend on them
+	private String getEnvironment() {
+		return System.getProperty("java.class.path") + "|" + new TreeSet<>(state.getStoredImports());
+	}
 
-		// Compile all the Java files
-		Iterable<? extends JavaFileObject> fileObjects = fileManager.getJavaFileObjects(allJavaFiles);
-		boolean compilationSuccess = compiler.getTask(null, fileManager, null, Arrays.asList("-d", "./tmp/"), null, fileObjects).call();
-		if (!compilationSuccess) {
-			throw new RuntimeException("Compilation failed.");
+	public synchronized String getStatistics() {
+		StringBuilder statistics = new StringBuilder(String.format("Compilations: %d (%d units), average %.1f ms",
+			compileCount, unitsCompiled, averageMillis(compileNanos, compileCount)));
+		for (Profile profile : Profile.values()) {
+			statistics.append(String.format("%n  %s profile: %d, average %.1f ms", profile.name().toLowerCase(),
+				profileCompiles[profile.ordinal()], averageMillis(profileNanos[profile.ordinal()], profileCompiles[profile.ordinal()])));
 		}
+		statistics.append(String.format("%nParse checks: %d, average %.1f ms, %d rejected",
+			parseCount, averageMillis(parseNanos, parseCount), syntaxRejections));
+		return statistics.append(String.format("%nSnippet cache: %d hits, %d misses", snippetCache.getHits(), snippetCache.getMisses()))
+			+ (bytecodeCache == null ? "" : System.lineSeparator() + bytecodeCache.getStatistics())
+			+ System.lineSeparator() + pool.getStatistics()
+			+ System.lineSeparator() + getClassLoadingStatistics();
+	}
+
+	private static double averageMillis(long nanos, long count) {
+		return count == 0 ? 0 : nanos / 1e6 / count;
 	}
 
+	private String getClassLoadingStatistics() {
+		// Forget loaders that have been garbage collected
+		liveLoaders.removeIf(reference -> reference.get() == null);
+		int liveClasses = 0;
+		for (WeakReference<MemoryClassLoader> reference : liveLoaders) {
+			MemoryClassLoader classLoader = reference.get();
+			if (classLoader != null) {
+				liveClasses += classLoader.getDefinedClasses();
+			}
+		}
+
+		ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+		return String.format("Snippet class loaders: %d live, %d classes (JVM: %d loaded, %d unloaded)",
+			liveLoaders.size(), liveClasses, classLoading.getLoadedClassCount(), classLoading.getUnloadedClassCount());
+	}
 
 	public Object compileAndExecute(String className, String methodName, String code) throws Exception {
-		compile(className + ".java", code);
-		loadCompiledClass(className, code);
+		// Execute the method outside the lock so a background compile is not held up by user code
+		return lookupMethod(className, methodName, code).invoke(null);
+	}
+
+	// Runs a snippet whose entry point takes the session bindings, so its locals outlive the call
+	public Object compileAndExecute(String className, String methodName, String code, Bindings bindings) throws Exception {
+		return lookupMethod(className, methodName, code, Bindings.class).invoke(null, bindings);
+	}
+
+	// Compiles or reuses the snippet class under the lock and returns its entry point
+	private synchronized Method lookupMethod(String className, String methodName, String code, Class<?>... parameterTypes) throws Exception {
+		// Identical source compiled against the same classes and imports can reuse the class defined last time
+		String fileName = className + ".java";
+		Set<String> dependencies = referencedUnits(identifiersOf(code), Collections.singleton(fileName));
+		String cacheKey = snippetKey(code, dependencies);
+		Map<String, byte[]> cachedBytes = snippetCache.get(cacheKey);
+		if (cachedBytes != null) {
+			// The key pins the dependencies to the generations the bytecode was compiled against, which are still current
+			registerClass(className, Class.forName(className, true, newLoader(cachedBytes, dependencies)), code);
+		} else {
+			compile(fileName, code, Profile.SNIPPET);
+			loadCompiledClass(className, code);
+			snippetCache.put(cacheKey, unitBytes(fileName), dependencies);
+		}
+		return state.getCompiledClass(className).getMethod(methodName, parameterTypes);
+	}
+
+	// Compiles a snippet into the snippet cache without registering it, so a later compileAndExecute of the
+	// same source against the same classes is a cache hit. javac runs outside the lock, against a copy of the
+	// session's bytecode, so the snippet running meanwhile is not held up; the lock is only taken to check the
+	// cache and to fill it, and a result compiled against classes that changed in between is dropped.
+	public void precompile(String className, String code) throws Exception {
+		String fileName = className + ".java";
+		String cacheKey;
+		Map<String, byte[]> workspace;
+		synchronized (this) {
+			cacheKey = snippetKey(code, referencedUnits(identifiersOf(code), Collections.singleton(fileName)));
+			if (snippetCache.contains(cacheKey)) {
+				return;
+			}
+			workspace = new HashMap<>(classBytes);
+			workspace.keySet().removeAll(unitClasses.getOrDefault(fileName, Collections.emptySet()));
+		}
+
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		Map<String, String> outputs;
+		boolean success;
+		long start = System.nanoTime();
+		MemoryFileManager fileManager = pool.acquire(workspace);
+		try {
+			success = pool.getJavac().getTask(null, fileManager, diagnostics, Profile.SNIPPET.getOptions(), null,
+				Collections.singletonList(MemoryFileManager.source(fileName, code))).call();
+			outputs = fileManager.drainOutputs();
+		} finally {
+			pool.release(fileManager);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (!success) {
+			throw compilationException("Compilation failed.", diagnostics);
+		}
+
+		Map<String, byte[]> compiled = new HashMap<>();
+		for (String output : outputs.keySet()) {
+			compiled.put(output, workspace.get(output));
+		}
+		synchronized (this) {
+			compileNanos += elapsed;
+			compileCount++;
+			unitsCompiled++;
+			profileNanos[Profile.SNIPPET.ordinal()] += elapsed;
+			profileCompiles[Profile.SNIPPET.ordinal()]++;
+			Set<String> dependencies = referencedUnits(identifiersOf(code), Collections.singleton(fileName));
+			if (snippetKey(code, dependencies).equals(cacheKey)) {
+				snippetCache.put(cacheKey, compiled, dependencies);
+			}
+		}
+	}
+
+	// Defines a class generated without javac in a loader of its own; it links only against the JDK and this package
+	public synchronized Class<?> defineClass(String className, byte[] bytes) throws ClassNotFoundException {
+		return Class.forName(className, true, newLoader(Collections.singletonMap(className, bytes), Collections.emptySet()));
+	}
 
-		// Execute the method
-		Method method = state.getCompiledClass(className).getMethod(methodName);
-		return method.invoke(null);
+	// Compiles, loads and runs a throwaway snippet so javac and class loading are hot before the first real input.
+	// Stops early if the calling thread is interrupted; the snippet never becomes part of the session.
+	public void warmUp() throws Exception {
+		String fileName = WARM_UP_CLASS + ".java";
+		String code = "import java.util.*; public class " + WARM_UP_CLASS + " { public static Object eval() { "
+			+ "List<String> words = new ArrayList<>(Arrays.asList(\"warm\", \"up\")); "
+			+ "return String.join(\" \", words).length() + words.size() * 2; } }";
+
+		Method method;
+		synchronized (this) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			try {
+				compile(fileName, code, Profile.SNIPPET);
+				method = Class.forName(WARM_UP_CLASS, true, classOwners.get(WARM_UP_CLASS)).getMethod("eval");
+			} finally {
+				discardUnit(fileName);
+			}
+		}
+		if (!Thread.currentThread().isInterrupted()) {
+			method.invoke(null);
+		}
+	}
+
+	// Bytecode of every class the unit's last compile produced
+	private Map<String, byte[]> unitBytes(String fileName) {
+		Map<String, byte[]> bytes = new HashMap<>();
+		for (String className : unitClasses.getOrDefault(fileName, Collections.emptySet())) {
+			bytes.put(className, classBytes.get(className));
+		}
+		return bytes;
+	}
+
+	private void discardUnit(String fileName) {
+		sources.remove(fileName);
+		identifiers.remove(fileName);
+		unitGenerations.remove(fileName);
+		Set<String> classNames = unitClasses.remove(fileName);
+		if (classNames != null) {
+			classBytes.keySet().removeAll(classNames);
+			classOwners.keySet().removeAll(classNames);
+		}
 	}
 
-	public void loadCompiledClass(String className, String sourceCode) throws Exception {
-		// Create a new class loader with the compiled class directory
-		URLClassLoader classLoader = URLClassLoader.newInstance(new URL[]{new File("./tmp/").toURI().toURL()});
-		
-		// Load the class using the updated class loader
+	public synchronized void loadCompiledClass(String className, String sourceCode) throws Exception {
+		// Load the class from the generation that compiled it last
+		ClassLoader classLoader = classOwners.get(className);
+		if (classLoader == null) {
+			throw new ClassNotFoundException(className);
+		}
 		Class<?> compiledClass = Class.forName(className, true, classLoader);
+		if (className.equals("Eval")) {
+			moveStaticVariables(state.getCompiledClass(className), compiledClass);
+		}
+		registerClass(className, compiledClass, sourceCode);
+	}
+
+	// Static variables live in fields of Eval that have no initializers, so a new Eval is given the latest
+	// values: those in the Eval it replaces, where its methods may have changed them, or else the stored ones
+	private void moveStaticVariables(Class<?> previous, Class<?> eval) throws IllegalAccessException {
+		for (Variable variable : state.getStoredVariables().values()) {
+			Field field = variable.staticField(eval);
+			if (field == null) {
+				continue;
+			}
+			Field previousField = previous == null ? null : variable.staticField(previous);
+			if (previousField != null && !Objects.equals(previousField.get(null), variable.getValue())) {
+				variable.setValue(previousField.get(null));
+			}
+			field.set(null, variable.getValue());
+		}
+	}
+
+	private void registerClass(String className, Class<?> compiledClass, String sourceCode) {
 		state.addCompiledClass(className, compiledClass, sourceCode);
-		
+
 		// Store any methods from the class into compiledMethods
 		for (Method method : compiledClass.getDeclaredMethods()) {
 			state.addCompiledMethod(className + "." + method.getName(), method);
 		}
 	}
 
-	public void deleteCompiledFiles() {
-		// Delete ./tmp directory
-		File dir = new File("./tmp/");
-		if (dir.exists()) {
-			File[] files = dir.listFiles();
-			if (files != null) {
-				for (File file : files) {
-					file.delete();
-				}
+	// Digest of a unit's source plus the class path, imports and the exact compile of every unit it refers to
+	private String snippetKey(String code, Set<String> dependencies) {
+		MessageDigest digest = newDigest();
+		digest.update(getEnvironment().getBytes(StandardCharsets.UTF_8));
+		for (String unit : dependencies) {
+			digest.update((unit + "@" + unitGenerations.get(unit) + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update(code.getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	public synchronized void deleteCompiledFiles() {
+		sources.clear();
+		unitGenerations.clear();
+		snippetCache.clear();
+		classBytes.clear();
+		classOwners.clear();
+		unitClasses.clear();
+		identifiers.clear();
+
+		// Delete the debug dump directory, if one was requested
+		if (DUMP_DIR != null) {
+			deleteRecursively(new File(DUMP_DIR));
+		}
+	}
+
+	private void dumpCompiledFiles() throws IOException {
+		File dir = new File(DUMP_DIR);
+		for (Map.Entry<String, String> entry : sources.entrySet()) {
+			File sourceFile = new File(dir, entry.getKey());
+			sourceFile.getParentFile().mkdirs();
+			Files.write(sourceFile.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+		}
+		for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+			File classFile = new File(dir, entry.getKey().replace('.', '/') + ".class");
+			classFile.getParentFile().mkdirs();
+			Files.write(classFile.toPath(), entry.getValue());
+		}
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
 			}
-			dir.delete();
 		}
+		file.delete();
 	}
 }
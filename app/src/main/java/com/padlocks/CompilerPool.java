@@ -0,0 +1,80 @@
+package com.padlocks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+// javac and warm file managers shared by every session in the JVM; at most repl.compilerPoolSize compiles
+// (the processor count by default) run at once
+class CompilerPool {
+	private static final CompilerPool SHARED = new CompilerPool(
+		Integer.getInteger("repl.compilerPoolSize", Runtime.getRuntime().availableProcessors()));
+
+	private final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+	private final Deque<MemoryFileManager> idle = new ArrayDeque<>();
+	private final int capacity;
+	private int created;
+	private long borrows;
+	private long waits;
+
+	CompilerPool(int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	static CompilerPool shared() {
+		return SHARED;
+	}
+
+	// Closes the shared pool at exit; a file manager that fails to close then is not worth reporting
+	static void closeShared() {
+		try {
+			SHARED.close();
+		} catch (IOException e) {
+			// Exiting anyway
+		}
+	}
+
+	JavaCompiler getJavac() {
+		return javac;
+	}
+
+	// Lends a file manager that reads and writes the given session's bytecode until it is released
+	synchronized MemoryFileManager acquire(Map<String, byte[]> classBytes) throws InterruptedException {
+		borrows++;
+		while (idle.isEmpty() && created >= capacity) {
+			waits++;
+			wait();
+		}
+		MemoryFileManager fileManager = idle.poll();
+		if (fileManager == null) {
+			created++;
+			fileManager = new MemoryFileManager(javac.getStandardFileManager(null, null, StandardCharsets.UTF_8));
+		}
+		fileManager.bind(classBytes);
+		return fileManager;
+	}
+
+	synchronized void release(MemoryFileManager fileManager) {
+		fileManager.bind(null);
+		// Most recently used first, so the warmest listings get reused
+		idle.push(fileManager);
+		notify();
+	}
+
+	synchronized String getStatistics() {
+		return String.format("Compiler pool: %d of %d file managers created, %d borrows, %d waited", created, capacity, borrows, waits);
+	}
+
+	synchronized void close() throws IOException {
+		for (MemoryFileManager fileManager : idle) {
+			fileManager.close();
+		}
+		created -= idle.size();
+		idle.clear();
+	}
+}
@@ -0,0 +1,116 @@
+package com.padlocks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Runs each evaluation on a worker thread that cancel() and the repl.timeout deadline interrupt, stopping
+// by force a snippet that ignores the interrupt
+class EvaluationRunner {
+	private static final long TIMEOUT_MILLIS = (long) (Double.parseDouble(System.getProperty("repl.timeout", "0")) * 1000);
+	private static final long GRACE_MILLIS = 2000;
+	private static final long POLL_MILLIS = 50;
+
+	private final ThreadFactory threads = workerThreads();
+	private final Evaluator evaluator;
+	private volatile boolean cancelRequested;
+	// Worker that ignored both the interrupt and the forced stop, or could not be stopped
+	private Thread abandoned;
+
+	EvaluationRunner(Evaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
+	// Blocks until the evaluation finishes, is cancelled, or has to be abandoned
+	void evaluate(String input) throws InterruptedException {
+		if (abandoned != null && abandoned.isAlive()) {
+			System.out.println("\n\nA cancelled snippet is still running in the background and may change the session; "
+				+ "nothing else runs until it finishes.");
+			return;
+		}
+		abandoned = null;
+
+		FutureTask<Void> task = new FutureTask<>(() -> {
+			evaluator.evaluateInput(input);
+			return null;
+		});
+		Thread worker = threads.newThread(task);
+		cancelRequested = false;
+		worker.start();
+
+		long deadline = TIMEOUT_MILLIS > 0 ? System.currentTimeMillis() + TIMEOUT_MILLIS : Long.MAX_VALUE;
+		long stopDeadline = Long.MAX_VALUE;
+		boolean stopped = false;
+		while (true) {
+			try {
+				task.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				return;
+			} catch (ExecutionException e) {
+				// Only errors reach here; evaluateInput reports exceptions itself
+				Throwable cause = e.getCause();
+				System.out.println("\n\n" + (isForcedStop(cause) ? "Cancelled." : "Error: " + cause));
+				return;
+			} catch (TimeoutException e) {
+				long now = System.currentTimeMillis();
+				if (stopDeadline == Long.MAX_VALUE && (cancelRequested || now >= deadline)) {
+					if (!cancelRequested) {
+						System.out.println("\n\nTimed out after " + TIMEOUT_MILLIS + " ms, interrupting...");
+					}
+					worker.interrupt();
+					stopDeadline = now + GRACE_MILLIS;
+				} else if (now >= stopDeadline && !stopped) {
+					stopped = true;
+					if (!forceStop(worker)) {
+						abandoned = worker;
+						return;
+					}
+				} else if (stopped && now >= stopDeadline + GRACE_MILLIS) {
+					// Stuck in native code or a finally block
+					abandoned = worker;
+					return;
+				}
+			}
+		}
+	}
+
+	// Safe to call from a signal handler
+	void cancel() {
+		cancelRequested = true;
+	}
+
+	// The worker then unwinds with ThreadDeath, running its finally blocks so session values are written back.
+	// Thread.stop is called reflectively as it is marked for removal, and throws on JDK 20 and later anyway.
+	private static boolean forceStop(Thread worker) {
+		try {
+			Thread.class.getMethod("stop").invoke(worker);
+			return true;
+		} catch (ReflectiveOperationException e) {
+			System.out.println("\n\nSnippet ignored the interrupt and keeps running in the background.");
+			return false;
+		}
+	}
+
+	// Whether a throwable is the ThreadDeath a forced stop unwinds with; matched by name, as the class is marked
+	// for removal
+	static boolean isForcedStop(Throwable e) {
+		return e.getClass().getName().equals("java.lang.ThreadDeath");
+	}
+
+	// Virtual threads on JDKs that have them, daemon platform threads otherwise
+	private static ThreadFactory workerThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return task -> {
+				Thread thread = new Thread(task, "repl-eval");
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+}
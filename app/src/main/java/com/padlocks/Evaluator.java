@@ -1,24 +1,77 @@
 package com.padlocks;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 
 import com.padlocks.Compiler;
+import com.sun.source.tree.AssignmentTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ModifiersTree;
+import com.sun.source.tree.NewArrayTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
 
 public class Evaluator {
-	private static final State state = new State();
-	private static final Parser parser = new Parser();
-	private static final Compiler compiler = new Compiler(state);
+	private final State state = new State();
+	private final Parser parser = new Parser();
+	private final Compiler compiler;
+	private final SnippetClassifier classifier;
+	private final ExpressionInterpreter interpreter = new ExpressionInterpreter(state);
+	// -Drepl.backend=javac compiles every statement snippet; the default translates simple ones to bytecode first
+	private static final boolean EMIT_BYTECODE = !"javac".equals(System.getProperty("repl.backend"));
+	private final boolean emitBytecode;
+	private final BytecodeEmitter emitter = new BytecodeEmitter();
+
+	public Evaluator() {
+		this(CompilerPool.shared());
+	}
+
+	// Sessions created from the same pool share its warm javac file managers
+	Evaluator(CompilerPool pool) {
+		this(pool, EMIT_BYTECODE);
+	}
 
-	public static void evaluateInput(String input) throws Exception {
+	// emitBytecode chooses the backend for this session regardless of repl.backend
+	Evaluator(CompilerPool pool, boolean emitBytecode) {
+		this.emitBytecode = emitBytecode;
+		compiler = new Compiler(state, pool);
+		classifier = new SnippetClassifier(parser, pool);
+	}
+
+	public void evaluateInput(String input) throws Exception {
 		try {
 			// Accumulate the input code
 			state.updateCode(new StringBuilder(input));
 			executeAccumulatedCode(input);
+		} catch (CompilationException e) {
+			// Problems in generated code the input went into are already relative to the input
+			System.out.println("\n\nError: " + e.getMessage());
 		} catch (Exception e) {
+			if (isCancellation(e)) {
+				// Interrupted by Ctrl-C or the timeout; values the snippet already wrote back are kept
+				System.out.println("\n\nCancelled.");
+				return;
+			}
 			// Print the exception message and local state
 			System.out.println("\n\nError: " + e.getMessage());
 			System.out.println(state);
@@ -27,7 +80,35 @@ public class Evaluator {
 		}
 	}
 
-	private static void handleJavaFile(String input, Boolean reEvaluate) throws Exception {
+	private static boolean isCancellation(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof CancellationException || cause instanceof InterruptedException
+					|| EvaluationRunner.isForcedStop(cause)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Warms up the compiler pipeline on a background thread; cancel the returned future to stop it
+	public Future<?> startWarmUp() {
+		FutureTask<Void> warmUp = new FutureTask<>(() -> {
+			compiler.warmUp();
+			classifier.warmUp();
+			return null;
+		});
+		Thread thread = new Thread(warmUp, "repl-warm-up");
+		thread.setDaemon(true);
+		thread.start();
+		return warmUp;
+	}
+
+	public void shutdown() throws Exception {
+		// Discard compiled snippets and any debug dump
+		compiler.deleteCompiledFiles();
+	}
+
+	private void handleJavaFile(String input, Boolean reEvaluate) throws Exception {
 		// Split the input into lines
 		String[] lines = input.split("\n");
 
@@ -44,7 +125,7 @@ public class Evaluator {
 		if (reEvaluate) evaluateInput(input.trim());
 	}
 
-	private static void handleImport(String input, Boolean reEvaluate) throws Exception {
+	private void handleImport(String input, Boolean reEvaluate) throws Exception {
 		// Check if the input has a class inside
 		if (input.contains("class")) {
 			handleJavaFile(input, reEvaluate);
@@ -60,7 +141,7 @@ public class Evaluator {
 		} else {
 			// Local import, compile the class
 			String fileName = className.replace('.', '/') + ".java";
-			compiler.compile(fileName, input);
+			compiler.compile(fileName, input, Compiler.Profile.CLASS);
 			compiler.loadCompiledClass(className, input);
 		}
 
@@ -68,28 +149,55 @@ public class Evaluator {
 		state.addStoredImport(input);
 	}
 
-	private static void evaluateStatement(String input) throws Exception {
-		if (input.contains("=")) {
-			handleVariableDeclaration(input);
-		} else if (input.contains("(") && input.contains(")")) {
+	private void evaluateStatement(String input, Snippet snippet) throws Exception {
+		if (!snippet.isParsed()) {
+			if (input.contains("=")) {
+				handleVariableDeclaration(input, snippet);
+			} else if (input.contains("(") && input.contains(")")) {
+				handleMethodInvocation(input);
+			} else {
+				// It's an expression ending with a semicolon
+				evaluateExpression(input);
+			}
+			return;
+		}
+
+		// Route on what the statement is at the top, e.g. f.get() + 1 is an expression, not a call
+		Tree tree = snippet.single();
+		if (tree instanceof VariableTree && ((VariableTree) tree).getInitializer() != null) {
+			handleVariableDeclaration(input, snippet);
+		} else if (tree instanceof AssignmentTree && ((AssignmentTree) tree).getVariable() instanceof IdentifierTree
+				&& state.getStoredVariable(((IdentifierTree) ((AssignmentTree) tree).getVariable()).getName().toString()) != null) {
+			handleVariableDeclaration(input, snippet);
+		} else if (tree instanceof VariableTree || tree instanceof AssignmentTree) {
+			// No initializer, or assigning a field or an undeclared name: let javac deal with it
+			executeStatements(input);
+		} else if (tree instanceof MethodInvocationTree || tree instanceof NewClassTree) {
 			handleMethodInvocation(input);
 		} else {
-			// It's an expression ending with a semicolon
 			evaluateExpression(input);
 		}
 	}
 
-	private static Object evaluateExpression(String input) throws Exception {
-		String className = "ExpressionEvaluator";
-		String methodName = "eval";
-		StringBuilder code = new StringBuilder();
-		code.append("import java.lang.*; public class ").append(className).append(" { ");
-		code = injectStoredStaticVariables(code);
-		code.append("public static Object ").append(methodName).append("() { ");
-		code = injectStoredVariables(code);
-		code.append("return ").append(input.replace(";", "")).append("; } }");
+	private Object evaluateExpression(String input) throws Exception {
+		String expression = input.replace(";", "");
 
-		Object result = compiler.compileAndExecute(className, methodName, code.toString());
+		// Simple expressions are evaluated directly; anything else is compiled
+		syncStaticVariables();
+		return evaluateExpression(expression, interpreter.parse(expression));
+	}
+
+	// Runs the interpreted expression, or compiles the expression if the interpreter did not take it
+	private Object evaluateExpression(String expression, ExpressionInterpreter.Expression interpreted) throws Exception {
+		String className = "ExpressionEvaluator";
+		Object result;
+		if (interpreted != null) {
+			result = interpreted.evaluate();
+		} else {
+			Map<String, String> none = Collections.emptyMap();
+			Wrapper wrapper = snippetSource(className, "Object", "return " + expression + ";", boundVariables(expression, none), none);
+			result = runSnippet(className, wrapper, expression, "return ".length());
+		}
 		if (result != null) {
 			System.out.println("Result: " + result);
 			return result;
@@ -98,58 +206,89 @@ public class Evaluator {
 		return null;
 	}
 
-	private static void handleVariableDeclaration(String input) throws Exception {
-		String[] tokens = input.split("=");
+	private void handleVariableDeclaration(String input, Snippet snippet) throws Exception {
 		String variableName;
 		String variableType;
-		String value = tokens[1].replace(";", "").trim();
+		String value;
+		Tree valueTree = null;
+		boolean isStatic;
+		Tree tree = snippet.single();
+		if (tree instanceof VariableTree) {
+			// Declaration: name, type and initializer come from the tree
+			VariableTree declaration = (VariableTree) tree;
+			variableName = declaration.getName().toString();
+			variableType = declaration.getType() == null ? "var" : snippet.source(declaration.getType());
+			valueTree = declaration.getInitializer();
+			value = snippet.source(valueTree);
+			isStatic = declaration.getModifiers().getFlags().contains(javax.lang.model.element.Modifier.STATIC);
+		} else if (tree instanceof AssignmentTree) {
+			variableName = snippet.source(((AssignmentTree) tree).getVariable());
+			variableType = null;
+			valueTree = ((AssignmentTree) tree).getExpression();
+			value = snippet.source(valueTree);
+			isStatic = false;
+		} else {
+			String[] tokens = input.split("=");
+			value = tokens[1].replace(";", "").trim();
 
-		// Check if it's a declaration or an assignment
-		String[] modifiers = tokens[0].split(" ");
-		variableName = modifiers[modifiers.length - 1];
+			// Check if it's a declaration or an assignment
+			String[] modifiers = tokens[0].split(" ");
+			variableName = modifiers[modifiers.length - 1];
+			variableType = modifiers.length > 1 ? modifiers[modifiers.length - 2] : null;
+
+			// Check if the variable is a static variable
+			isStatic = input.contains("static");
+		}
 
 		// Get access level of the variable
 		Variable.AccessLevel access = Variable.getAccessLevel(input);
 
-		// Check if the variable is a static variable
-		boolean isStatic = input.contains("static");
+		// If it's a declaration, check if the variable already exists
+		Variable existingVariable = state.getStoredVariable(variableName);
+		if (existingVariable == null && variableType == null) {
+			// Assigning something that is not a session variable; javac reports it if it does not exist
+			executeStatements(input);
+			return;
+		}
 
 		// Evaluate the value of the variable
-		Object parsedValue = evaluateVariable(value);
+		Object parsedValue = evaluateVariable(value, valueTree, variableType != null ? variableType : existingVariable.getType());
 
-		// If it's a declaration, check if the variable already exists
-		Variable existingVariable = state.getStoredVariable(variableName);
 		if (existingVariable == null) {
-			variableType = modifiers[modifiers.length - 2];
+			// Store primitives boxed as their declared type, e.g. long x = 5 as a Long
+			parsedValue = ExpressionInterpreter.assignmentValue(parsedValue, variableType);
 			// Create a new variable and store it
 			Variable newVariable = new Variable(access, isStatic, variableName, variableType, parsedValue, input);
 			state.addStoredVariable(variableName, newVariable);
 		} else {
 			// Update the value of the existing variable
+			parsedValue = ExpressionInterpreter.assignmentValue(parsedValue, existingVariable.getType());
 			existingVariable.setValue(parsedValue);
-
-			// Update the Eval class with the new variable value
-			String evalSource = state.getClassSource("Eval");
-			StringBuilder newEvalCode = new StringBuilder();
-
-			// Line by line
-			String[] lines = evalSource.split("\n");
-			for (String line : lines) {
-				if (line.contains(existingVariable.getName()) && line.contains("=")) {
-					// Replace the old variable value with the new one
-					newEvalCode.append(existingVariable.getInput()).append("\n");
-				} else {
-					newEvalCode.append(line).append("\n");
-				}
+			Class<?> eval = state.getCompiledClass("Eval");
+			Field field = eval == null ? null : existingVariable.staticField(eval);
+			if (field != null) {
+				field.set(null, parsedValue);
 			}
-
-			// Compile
-			compiler.compile("Eval.java", newEvalCode.toString());
-			compiler.loadCompiledClass("Eval", newEvalCode.toString());
 		}
 	}
 
-	private static Object evaluateVariable(String value) throws Exception {
+	private Object evaluateVariable(String value, Tree valueTree, String type) throws Exception {
+		if (valueTree != null) {
+			// Lambdas, method references and array initializers only have a type through the declaration
+			boolean typed = type != null && !type.equals("var");
+			if (typed && (valueTree instanceof LambdaExpressionTree || valueTree instanceof MemberReferenceTree)) {
+				return evaluateExpression("(" + type + ") (" + value + ")");
+			} else if (typed && valueTree instanceof NewArrayTree && ((NewArrayTree) valueTree).getType() == null) {
+				return evaluateExpression("new " + type + " " + value);
+			}
+			// Only a call or instantiation at the top goes the reflective way
+			if (valueTree instanceof NewClassTree) {
+				return handleClassInstantiation(value);
+			} else if (valueTree instanceof MethodInvocationTree) {
+				return handleMethodInvocation(value);
+			}
+			return evaluateExpression(value);
+		}
 		// Check if variable is equal to a method call
 		if (value.contains("new ")) {
 			return handleClassInstantiation(value);
@@ -160,7 +299,7 @@ public class Evaluator {
 		}
 	}
 
-	private static Object handleClassInstantiation(String input) throws Exception {
+	private Object handleClassInstantiation(String input) throws Exception {
 		String className = input.substring(input.indexOf("new ") + 4, input.indexOf("(")).trim();
 		String[] arguments = input.substring(input.indexOf('(') + 1, input.indexOf(')')).split(",");
 		Object[] args = arguments.length == 1 && arguments[0].trim().isEmpty() 
@@ -170,10 +309,7 @@ public class Evaluator {
 				.toArray();
 
 		// Infer the argument types and handle conversion of wrapper types to primitives
-		Class<?>[] argTypes = Arrays.stream(args)
-			.map(Object::getClass)
-			.map(parser::convertToPrimitive)
-			.toArray(Class<?>[]::new);
+		Class<?>[] argTypes = argumentTypes(arguments, args);
 
 		Class<?> clazz;
 		try {
@@ -186,13 +322,20 @@ public class Evaluator {
 		}
 
 		// Get the constructor with the appropriate argument types
-		Constructor<?> constructor = clazz.getDeclaredConstructor(argTypes);
-		// If the constructor is not public, make it accessible
-		constructor.setAccessible(true);
-		return constructor.newInstance(args);
+		CallSiteCache callSites = state.getCallSites();
+		MethodHandle constructor = callSites.get(clazz, "<init>", argTypes);
+		if (constructor == null) {
+			Constructor<?> declared = MemberIndex.of(clazz).findConstructor(argTypes);
+			if (declared == null) {
+				throw new NoSuchMethodException(clazz.getName() + ".<init>" + Arrays.toString(argTypes));
+			}
+			constructor = CallSiteCache.spread(declared, argTypes);
+			callSites.put(clazz, "<init>", argTypes, clazz, constructor);
+		}
+		return invoke(constructor, args);
 	}
 
-	private static Object handleMethodInvocation(String input) throws Exception {
+	private Object handleMethodInvocation(String input) throws Exception {
 		// Find the position of the dot to separate variable and method
 		int dotIndex = input.indexOf(".");
 
@@ -205,18 +348,11 @@ public class Evaluator {
 			String methodName = methodCall.substring(0, methodCall.indexOf("("));
 			String argsString = methodCall.substring(methodCall.indexOf("(") + 1, methodCall.indexOf(")"));
 			String[] arguments = argsString.split(",");
-			Object[] args = arguments.length == 1 && arguments[0].trim().isEmpty() 
-				? new Object[0] 
-				: Arrays.stream(arguments)
-					.map(arg -> {
-						Variable storedVar = state.getStoredVariable(arg.trim());
-						return storedVar != null ? storedVar.getValue() : parser.parseArgument(arg.trim());
-					})
-					.toArray();
+			Object[] args = argumentValues(arguments);
 
 			// Static method call
 			if (state.getStoredVariable(variableName) == null) {
-				Object result = evaluateMethodInvocationDynamically(methodName, args, input);
+				Object result = evaluateMethodInvocationDynamically(methodName, args, argumentTypes(arguments, args), input);
 				return result;
 			}
 
@@ -224,11 +360,14 @@ public class Evaluator {
 			Object instance = state.getStoredVariable(variableName).getValue();
 
 			// Find the method in the instance's class
-			Method method = findMethod(methodName, args, instance.getClass());
+			MethodHandle method = resolveMethod(instance.getClass(), methodName, argumentTypes(arguments, args));
 
 			// Invoke the method on the instance
 			if (method != null) {
-				Object result = method.invoke(instance, args);
+				Object[] receiverAndArgs = new Object[args.length + 1];
+				receiverAndArgs[0] = instance;
+				System.arraycopy(args, 0, receiverAndArgs, 1, args.length);
+				Object result = invoke(method, receiverAndArgs);
 				System.out.println("Result: " + result);
 				return result;
 			}
@@ -238,13 +377,9 @@ public class Evaluator {
 
 			// Extract arguments between parentheses and split them by comma
 			String[] arguments = input.substring(input.indexOf('(') + 1, input.indexOf(')')).split(",");
-			Object[] args = arguments.length == 1 && arguments[0].trim().isEmpty() 
-				? new Object[0] 
-				: Arrays.stream(arguments)
-					.map(arg -> parser.parseArgument(arg.trim()))
-					.toArray();
+			Object[] args = argumentValues(arguments);
 
-			Object result = evaluateMethodInvocationDynamically(methodName, args, input);
+			Object result = evaluateMethodInvocationDynamically(methodName, args, argumentTypes(arguments, args), input);
 			return result;
 		}
 
@@ -252,107 +387,469 @@ public class Evaluator {
 		return null;
 	}
 
-	private static Object evaluateMethodInvocationDynamically(String methodName, Object[] args, String input) throws Exception {
-		// Find the method based on the name and arguments
-		Method method = findMethod(methodName, args, null);
+	private Object evaluateMethodInvocationDynamically(String methodName, Object[] args, Class<?>[] argTypes, String input) throws Exception {
+		// Find the method based on the name and arguments; instance methods run on a fresh instance of their class
+		MethodHandle method = resolveMethod(null, methodName, argTypes);
 
 		if (method != null) {
-			Class<?> declaringClass = method.getDeclaringClass();
-
-			// Check if the method is static
-			if (Modifier.isStatic(method.getModifiers())) {
-				// Static method: invoke without instance
-				Object result = method.invoke(null, args);
-				System.out.println("Result: " + result);
-				return result;
-			} else {
-				// Non-static method: instantiate the class and invoke the method on the instance
-				Object instance = declaringClass.getDeclaredConstructor().newInstance();
-				Object result = method.invoke(instance, args);
-				System.out.println("Result: " + result);
-				return result;
-			}
+			Object result = invoke(method, args);
+			System.out.println("Result: " + result);
+			return result;
 		} else {
 			// If method not found, dynamically compile and execute the code
 			String className = "DynamicMethodEvaluator";
-			StringBuilder code = new StringBuilder();
-			code.append("import java.lang.*; public class ").append(className).append(" { ");
-			code = injectStoredStaticVariables(code);
-			code.append("public static")
-				.append(input.contains("return") ? " Object " : " void ")
-				.append("eval() { ");
-			code = injectStoredVariables(code);
-			code.append(input)
-				.append(" } }");
+			String returnType = input.contains("return") ? "Object" : "void";
+			Map<String, String> none = Collections.emptyMap();
+			Wrapper wrapper = snippetSource(className, returnType, input, boundVariables(input, none), none);
+			return runSnippet(className, wrapper, input, 0);
+		}
+	}
 
-			code = injectImports(code);
-			return compiler.compileAndExecute(className, "eval", code.toString());
+	// Resolves a call once per receiver class and argument types; a null receiver searches the compiled classes
+	private MethodHandle resolveMethod(Class<?> receiver, String methodName, Class<?>[] argTypes) throws Exception {
+		CallSiteCache callSites = state.getCallSites();
+		MethodHandle handle = callSites.get(receiver, methodName, argTypes);
+		if (handle == null) {
+			Method method = findMethod(methodName, argTypes, receiver);
+			if (method == null) {
+				return null;
+			}
+			handle = receiver == null && !Modifier.isStatic(method.getModifiers())
+				? CallSiteCache.spreadOnNewInstance(method, argTypes)
+				: CallSiteCache.spread(method, argTypes);
+			callSites.put(receiver, methodName, argTypes, method.getDeclaringClass(), handle);
 		}
+		return handle;
 	}
 
-	private static Method findMethod(String methodName, Object[] args, Class<?> clazz) {
+	private Method findMethod(String methodName, Class<?>[] argTypes, Class<?> clazz) {
 		if (clazz == null) {
 			Method method = state.getCompiledMethod("MethodEvaluator." + methodName);
 			if (method == null) {
 				for (Class<?> importedClass : state.getCompiledClasses().values()) {
-					try {
-						method = importedClass.getMethod(methodName, Arrays.stream(args).map(Object::getClass).toArray(Class<?>[]::new));
+					method = MemberIndex.of(importedClass).findMethod(methodName, argTypes);
+					if (method != null) {
 						break;
-					} catch (NoSuchMethodException e) {
-						// Method not found in this class, continue searching
 					}
 				}
 			}
 			return method;
 		} else {
-			try {
-				return clazz.getMethod(methodName, Arrays.stream(args).map(Object::getClass).toArray(Class<?>[]::new));
-			} catch (NoSuchMethodException e) {
-				return null; // Method not found
+			return MemberIndex.of(clazz).findMethod(methodName, argTypes);
+		}
+	}
+
+	// Stored variables give their values, anything else is parsed as a literal or name
+	private Object[] argumentValues(String[] arguments) {
+		if (arguments.length == 1 && arguments[0].trim().isEmpty()) {
+			return new Object[0];
+		}
+		return Arrays.stream(arguments)
+			.map(arg -> {
+				Variable storedVar = state.getStoredVariable(arg.trim());
+				return storedVar != null ? storedVar.getValue() : parser.parseArgument(arg.trim());
+			})
+			.toArray();
+	}
+
+	// Static types of call arguments: literals are primitives, null is the null type and variables have their
+	// declared type, so overloads resolve as javac would; var and types that do not resolve use the value's class
+	private Class<?>[] argumentTypes(String[] arguments, Object[] args) {
+		Class<?>[] types = new Class<?>[args.length];
+		for (int i = 0; i < args.length; i++) {
+			Variable variable = state.getStoredVariable(arguments[i].trim());
+			Class<?> declared = variable == null || "var".equals(variable.getType()) ? null
+				: TypeResolver.resolve(state, variable.getType());
+			// The value must match the declared type, boxed for primitives; one of a class since redefined does not
+			if (declared != null && (args[i] == null ? !declared.isPrimitive() : MemberIndex.boxed(declared).isInstance(args[i]))) {
+				types[i] = declared;
+			} else if (args[i] != null) {
+				types[i] = variable != null && !"var".equals(variable.getType())
+					? args[i].getClass() : parser.convertToPrimitive(args[i].getClass());
 			}
 		}
+		return types;
+	}
+
+	// Call sites take their arguments as one array; unchecked throwables propagate as they would from the target
+	private static Object invoke(MethodHandle handle, Object[] args) throws Exception {
+		try {
+			return (Object) handle.invokeExact(args);
+		} catch (Exception | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	// Compiles and runs only the new statements; stored locals are read from and written back to the session bindings
+	private void executeStatements(String input) throws Exception {
+		String className = "StatementEvaluator";
+		Map<String, String> declared = parser.declaredLocals(input);
+		Map<String, String> bound = boundVariables(input, declared);
+
+		// Loops and arithmetic over primitives are translated to bytecode directly; everything else goes to javac
+		byte[] emitted = emitBytecode ? emitter.emit(input, bound, declared) : null;
+		if (emitted != null) {
+			runEmitted(emitted);
+			return;
+		}
+		Wrapper wrapper = snippetSource(className, "void", input, bound, declared);
+		runSnippet(className, wrapper, input, 0);
 	}
 
-	private static StringBuilder injectStoredVariables(StringBuilder methodCode) {
-		// Inject stored variables into the method code
-		for (Map.Entry<String, Variable> entry : state.getStoredVariables().entrySet()) {
-			if (!entry.getValue().isStatic()) {
-				methodCode.append(entry.getValue().getInput()).append("\n");
+	private void runEmitted(byte[] emitted) throws Exception {
+		Class<?> snippet = compiler.defineClass(BytecodeEmitter.CLASS_NAME, emitted);
+		snippet.getMethod("eval", Bindings.class).invoke(null, new Bindings(state));
+	}
+
+	// Runs an expression the interpreter takes, or a statement block the emitter translates, before the input is
+	// classified: either is decided in microseconds, a javac parse of the input takes milliseconds
+	private boolean evaluateDirectly(String input) throws Exception {
+		if (!input.endsWith(";")) {
+			syncStaticVariables();
+			ExpressionInterpreter.Expression interpreted = interpreter.parseOperation(input);
+			if (interpreted != null) {
+				evaluateExpression(input, interpreted);
+				return true;
 			}
 		}
-		return methodCode;
+		if (emitBytecode) {
+			Map<String, String> declared = parser.declaredLocals(input);
+			byte[] emitted = emitter.emitBlock(input, boundVariables(input, declared), declared);
+			if (emitted != null) {
+				runEmitted(emitted);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Session state, for completing against what the session has defined
+	State getState() {
+		return state;
 	}
 
-	private static StringBuilder injectStoredStaticVariables(StringBuilder classCode) {
-		// Inject stored static variables into the class code
-		for (Map.Entry<String, Variable> entry : state.getStoredVariables().entrySet()) {
-			if (entry.getValue().isStatic()) {
-				classCode.append(entry.getValue().getInput()).append("\n");
+	// How a submission will be evaluated; the classification is kept, so evaluating the input next is not slowed down
+	Snippet classify(String input) {
+		return classifier.classify(input);
+	}
+
+	// Wrapper compile a statement submission will need, for running ahead of time while the previous
+	// submission executes. Call while the session is idle; null when the input does not go to javac.
+	// The job only fills the snippet cache, so a stale guess costs a compile but never changes results.
+	Callable<Void> prefetch(String input) {
+		if (input.equals("clear();") || input.equals("stats();") || input.equals("clearAll();")) {
+			return null;
+		}
+		// A statement ends with ; or }, and a block the emitter translates is not compiled
+		if (!input.endsWith(";") && !input.endsWith("}")) {
+			return null;
+		}
+		Map<String, String> declared = parser.declaredLocals(input);
+		Map<String, String> bound = boundVariables(input, declared);
+		if (emitBytecode && emitter.canEmitBlock(input, bound, declared)) {
+			return null;
+		}
+		Snippet snippet = classifier.classify(input);
+		if (snippet.getKind() != Snippet.Kind.STATEMENT || !snippet.isBlock()) {
+			return null;
+		}
+		String code = snippetSource("StatementEvaluator", "void", input, bound, declared).code;
+		return () -> {
+			compiler.precompile("StatementEvaluator", code);
+			return null;
+		};
+	}
+
+	// Session variables the input refers to, mapped to the type they are redeclared with inside a snippet
+	private Map<String, String> boundVariables(String input, Map<String, String> declared) {
+		Map<String, String> bound = new LinkedHashMap<>();
+		for (String name : parser.referencedIdentifiers(input)) {
+			Variable variable = state.getStoredVariable(name);
+			if (variable != null && !variable.isStatic() && !declared.containsKey(name)) {
+				bound.put(name, localType(variable));
+			}
+		}
+		return bound;
+	}
+
+	// Wraps a snippet body in a class whose eval(Bindings) method binds each session variable the input
+	// refers to as a typed local, then writes changed values and new declarations back to the session.
+	// Only referenced variables are bound, so the wrapper does not grow with the session.
+	private Wrapper snippetSource(String className, String returnType, String body, Map<String, String> bound, Map<String, String> declared) {
+		StringBuilder code = new StringBuilder();
+		code.append("public class ").append(className);
+		// Static variables, fields and methods defined in Eval stay reachable by their simple names
+		if (state.getCompiledClass("Eval") != null) {
+			code.append(" extends Eval");
+		}
+		code.append(" {\n@SuppressWarnings(\"unchecked\") public static ").append(returnType)
+			.append(" eval(com.padlocks.Bindings bindings) {\n");
+		for (Map.Entry<String, String> local : bound.entrySet()) {
+			code.append(local.getValue()).append(' ').append(local.getKey())
+				.append(" = (").append(local.getValue()).append(") bindings.get(\"").append(local.getKey()).append("\");\n");
+		}
+
+		// Write back in a finally block unless new locals have to stay in scope for declare()
+		boolean guarded = declared.isEmpty() && !bound.isEmpty();
+		code.append(guarded ? "try {\n" : "");
+		int bodyStart = code.length();
+		code.append(body).append("\n").append(guarded ? "} finally {\n" : "");
+		for (String name : bound.keySet()) {
+			code.append("bindings.set(\"").append(name).append("\", ").append(name).append(");\n");
+		}
+		code.append(guarded ? "}\n" : "");
+		for (Map.Entry<String, String> local : declared.entrySet()) {
+			code.append("bindings.declare(\"").append(local.getKey()).append("\", \"")
+				.append(javaString(parser.declaredType(local.getValue()))).append("\", ").append(local.getKey())
+				.append(", \"").append(javaString(local.getValue())).append("\");\n");
+		}
+		code.append("}\n}\n");
+		int length = code.length();
+		injectImports(code);
+		return new Wrapper(code.toString(), bodyStart + code.length() - length);
+	}
+
+	// Generated snippet class and where the body starts in it
+	private static final class Wrapper {
+		final String code;
+		final int bodyStart;
+
+		Wrapper(String code, int bodyStart) {
+			this.code = code;
+			this.bodyStart = bodyStart;
+		}
+	}
+
+	// Runs a generated snippet whose body has the input at inputStart
+	private Object runSnippet(String className, Wrapper wrapper, String input, int inputStart) throws Exception {
+		syncStaticVariables();
+		try {
+			return compiler.compileAndExecute(className, "eval", wrapper.code, new Bindings(state));
+		} catch (CompilationException e) {
+			int start = wrapper.bodyStart + inputStart;
+			throw e.relativeTo(className + ".java", start, start + input.length(), input, offset -> offset);
+		} finally {
+			// Pick up static variables the snippet assigned through Eval
+			syncStaticVariables();
+		}
+	}
+
+	// Static variables live in fields of Eval, which Compiler fills in whenever it loads Eval; snippets and
+	// methods may have assigned them since, so the stored values are refreshed from the fields
+	private void syncStaticVariables() throws Exception {
+		Class<?> eval = state.getCompiledClass("Eval");
+		if (eval == null) {
+			return;
+		}
+		for (Variable variable : state.getStoredVariables().values()) {
+			Field field = variable.staticField(eval);
+			if (field != null && !Objects.equals(field.get(null), variable.getValue())) {
+				variable.setValue(field.get(null));
+			}
+		}
+	}
+
+	// Field declaration for a static variable in Eval; the value is assigned once Eval is loaded
+	private static String staticFieldDeclaration(Variable variable) {
+		return "public static " + variable.getType() + " " + variable.getName() + ";";
+	}
+
+	private StringBuilder declareStaticFields(StringBuilder classCode, String existingSource) {
+		for (Variable variable : state.getStoredVariables().values()) {
+			String declaration = staticFieldDeclaration(variable);
+			if (variable.isStatic() && (existingSource == null || !existingSource.contains(declaration))) {
+				classCode.append(declaration).append("\n");
 			}
 		}
 		return classCode;
 	}
 
-	private static void evaluateClass(String input) throws Exception {
-		String className = input.substring(input.indexOf("class") + 5, input.indexOf("{")).trim();
-		className = className.split(" ")[0];
+	// Type to redeclare a stored variable with inside a snippet
+	private static String localType(Variable variable) {
+		if (!variable.getType().equals("var")) {
+			return variable.getType();
+		}
+		// Inferred types are only known from the live value
+		Object value = variable.getValue();
+		if (value == null || !Modifier.isPublic(value.getClass().getModifiers()) || value.getClass().getCanonicalName() == null) {
+			return "Object";
+		}
+		return value.getClass().getCanonicalName();
+	}
 
-		StringBuilder code = new StringBuilder();
-		code = code.append(input);
+	// Escapes text for use inside a generated string literal
+	private static String javaString(String text) {
+		return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+	}
 
-		// Inject stored imports
-		code = injectImports(code);
+	// Name and source of each class in the submission, taken from the parse tree when there is one
+	private Map<String, String> classDeclarations(Snippet snippet, String code) {
+		Map<String, String> classes = new LinkedHashMap<>();
+		if (snippet.isParsed()) {
+			for (Tree tree : snippet.getTrees()) {
+				if (tree instanceof ClassTree) {
+					classes.put(((ClassTree) tree).getSimpleName().toString(), publicClass(snippet, (ClassTree) tree));
+				}
+			}
+			return classes;
+		}
+		// Split the code by class
+		for (String input : parser.separateClasses(code)) {
+			if (input.trim().isEmpty()) {
+				continue;
+			}
+			String className = input.substring(input.indexOf("class") + 5, input.indexOf("{")).trim();
+			classes.put(className.split(" ")[0], input);
+		}
+		return classes;
+	}
 
-		// Check for extends or implements
-		// String extendsClassName = input.contains("extends") ? input.substring(input.indexOf("extends") + 7, input.indexOf("{")).trim() : null;
-		// String implementsInterfaceName = input.contains("implements") ? input.substring(input.indexOf("implements") + 10, input.indexOf("{")).trim() : null; 
+	// Method declarations with static added to any that lack it. Methods without an access modifier are
+	// made public, as the snippets that call them are loaded apart from Eval.
+	private String staticMethods(String input, Snippet snippet) {
+		if (!snippet.isParsed()) {
+			return parser.makeStatic(input);
+		}
+		return methodModifiers(snippet).apply(input) + "\n";
+	}
+
+	private static SourceEdits methodModifiers(Snippet snippet) {
+		SourceEdits edits = new SourceEdits();
+		for (Tree tree : snippet.getTrees()) {
+			MethodTree method = (MethodTree) tree;
+			Set<javax.lang.model.element.Modifier> flags = method.getModifiers().getFlags();
+			boolean packagePrivate = !flags.contains(javax.lang.model.element.Modifier.PUBLIC)
+				&& !flags.contains(javax.lang.model.element.Modifier.PROTECTED)
+				&& !flags.contains(javax.lang.model.element.Modifier.PRIVATE);
+			String modifiers = (packagePrivate ? "public " : "")
+				+ (flags.contains(javax.lang.model.element.Modifier.STATIC) ? "" : "static ");
+			edits.insert(declarationStart(snippet, method), modifiers);
+		}
+		return edits;
+	}
+
+	// Class declaration made public throughout: the class and its member classes, fields and methods with
+	// package or protected access become public. Every compile generation has its own class loader and a
+	// runtime package does not span loaders, so snippets and later classes could not reach them otherwise.
+	private static String publicClass(Snippet snippet, ClassTree declaration) {
+		return publicAccess(snippet, declaration).apply(snippet.source(declaration));
+	}
 
-		// Compile the class
-		compiler.compile(className + ".java", code.toString().trim());
-		compiler.loadCompiledClass(className, code.toString().trim());
+	// Edits to the source of a class declaration that make it public throughout
+	private static SourceEdits publicAccess(Snippet snippet, ClassTree declaration) {
+		SourceEdits edits = new SourceEdits();
+		widenAccess(snippet, declaration, snippet.start(declaration), edits);
+		return edits;
 	}
 
-	private static StringBuilder injectImports(StringBuilder code) {
+	private static void widenAccess(Snippet snippet, ClassTree type, int base, SourceEdits edits) {
+		widenAccess(snippet, type, type.getModifiers(), base, edits);
+		// Interface members are public already, but for private methods, which stay private
+		boolean isInterface = type.getKind() == Tree.Kind.INTERFACE || type.getKind() == Tree.Kind.ANNOTATION_TYPE;
+		for (Tree member : type.getMembers()) {
+			if (member instanceof ClassTree) {
+				widenAccess(snippet, (ClassTree) member, base, edits);
+			} else if (isInterface) {
+				continue;
+			} else if (member instanceof VariableTree) {
+				// Enum constants are implicitly public, so left alone
+				widenAccess(snippet, member, ((VariableTree) member).getModifiers(), base, edits);
+			} else if (member instanceof MethodTree) {
+				MethodTree method = (MethodTree) member;
+				// Enum constructors cannot be public
+				if (type.getKind() != Tree.Kind.ENUM || !method.getName().contentEquals("<init>")) {
+					widenAccess(snippet, method, method.getModifiers(), base, edits);
+				}
+			}
+		}
+	}
+
+	// Makes one declaration public; positions are taken relative to base
+	private static void widenAccess(Snippet snippet, Tree declaration, ModifiersTree modifiers, int base, SourceEdits edits) {
+		Set<javax.lang.model.element.Modifier> flags = modifiers.getFlags();
+		if (flags.contains(javax.lang.model.element.Modifier.PUBLIC) || flags.contains(javax.lang.model.element.Modifier.PRIVATE)) {
+			return;
+		} else if (!flags.contains(javax.lang.model.element.Modifier.PROTECTED)) {
+			// Fields declared together share a start, so they get one edit
+			edits.insert(declarationStart(snippet, declaration) - base, "public ");
+			return;
+		}
+		int start = snippet.start(modifiers);
+		JavaLexer tokens = JavaLexer.lex(snippet.source(modifiers));
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.text(i).equals("protected")) {
+				edits.replace(start + tokens.start(i) - base, tokens.text(i).length(), "public");
+			}
+		}
+	}
+
+	// Where modifiers go in a declaration; javac starts a method without modifiers at its first type
+	// parameter rather than at the < before it
+	private static int declarationStart(Snippet snippet, Tree declaration) {
+		int start = snippet.start(declaration);
+		if (declaration instanceof MethodTree) {
+			MethodTree method = (MethodTree) declaration;
+			if (!method.getTypeParameters().isEmpty() && start == snippet.start(method.getTypeParameters().get(0))) {
+				start = snippet.getInput().lastIndexOf('<', start);
+			}
+		}
+		return start;
+	}
+
+	private void evaluateClasses(Map<String, String> classes, Snippet snippet) throws Exception {
+		// Compile every class of the submission in one javac task so they can reference each other
+		Map<String, String> classSources = new LinkedHashMap<>();
+		for (Map.Entry<String, String> declaration : classes.entrySet()) {
+			String className = declaration.getKey();
+
+			StringBuilder code = new StringBuilder();
+			code = code.append(declaration.getValue());
+
+			// Inject stored imports
+			code = injectImports(code);
+
+			classSources.put(className, code.toString());
+		}
+
+		// Compile the classes
+		Map<String, String> units = new LinkedHashMap<>();
+		for (Map.Entry<String, String> classSource : classSources.entrySet()) {
+			units.put(classSource.getKey() + ".java", classSource.getValue());
+		}
+		try {
+			compiler.compile(units, Compiler.Profile.CLASS);
+		} catch (CompilationException e) {
+			// Each declaration ends its unit, after the imports
+			for (Tree tree : snippet.getTrees()) {
+				String className = tree instanceof ClassTree ? ((ClassTree) tree).getSimpleName().toString() : null;
+				if (classSources.containsKey(className)) {
+					int end = classSources.get(className).length();
+					int inputStart = snippet.start(tree);
+					SourceEdits edits = publicAccess(snippet, (ClassTree) tree);
+					e = e.relativeTo(className + ".java", end - classes.get(className).length(), end, snippet.getInput(),
+						offset -> inputStart + edits.original(offset));
+				}
+			}
+			throw e;
+		}
+		for (Map.Entry<String, String> classSource : classSources.entrySet()) {
+			compiler.loadCompiledClass(classSource.getKey(), classSource.getValue());
+		}
+	}
+
+	// Compiles Eval with the methods of the snippet at methodStart
+	private void compileMethods(String evalCode, int methodStart, String methods, Snippet snippet) throws Exception {
+		try {
+			compiler.compile("Eval.java", evalCode, Compiler.Profile.SNIPPET);
+		} catch (CompilationException e) {
+			SourceEdits edits = snippet.isParsed() ? methodModifiers(snippet) : new SourceEdits();
+			throw e.relativeTo("Eval.java", methodStart, methodStart + methods.length(), snippet.getInput(), edits::original);
+		}
+	}
+
+	private StringBuilder injectImports(StringBuilder code) {
 		// Inject stored imports into the class code
 		for (String importStatement : state.getStoredImports()) {
 			code.insert(0, importStatement + "\n");
@@ -362,7 +859,7 @@ public class Evaluator {
 	}
 
 	// Method to execute the accumulated code
-	public static void executeAccumulatedCode(String input) throws Exception {
+	public void executeAccumulatedCode(String input) throws Exception {
 		StringBuilder code = state.getCode();
 		if (!code.toString().isEmpty()) {
 			// Check for clear() and clearAll() methods
@@ -392,20 +889,32 @@ public class Evaluator {
 					}
 
 					// Compile and execute the Eval class
-					compiler.compile(className + ".java", newEvalCode.toString());
+					compiler.compile(className + ".java", newEvalCode.toString(), Compiler.Profile.SNIPPET);
 					compiler.loadCompiledClass(className, newEvalCode.toString());
 				}
 				System.out.println("Main method body cleared.");
 				return;
+			} else if (input.equals("stats();")) {
+				System.out.println(compiler.getStatistics());
+				System.out.println(interpreter.getStatistics());
+				System.out.println(emitter.getStatistics());
+				System.out.println(state.getCallSites().getStatistics());
+				System.out.println(classifier.getStatistics());
+				return;
 			} else if (input.equals("clearAll();")) {
 				state.clear();
-				// Delete ./tmp directory
+				// Discard compiled snippets
 				compiler.deleteCompiledFiles();
 				System.out.println("All stored variables, imports, classes, and methods cleared.");
 				return;
 			}
 
-			if (parser.isImport(input)) {
+			if (evaluateDirectly(input)) {
+				return;
+			}
+			Snippet snippet = classifier.classify(input);
+			Snippet.Kind kind = snippet.getKind();
+			if (kind == Snippet.Kind.IMPORT) {
 				code = parser.organizeCode(code);
 				state.updateCode(code);
 
@@ -416,37 +925,29 @@ public class Evaluator {
 				// Remove imports from the code
 				code = new StringBuilder(code.toString().replaceAll("import .*;\n", "").trim());
 				
-				if (parser.isClass(code.toString())) {
-					// Split the code by class
-					String[] classes = parser.separateClasses(code.toString());
-					for (String classCode : classes) {
-						evaluateClass(classCode);
-					}
-				}
-			} else if (parser.isClass(input)) {
-				// Split the code by class
-				String[] classes = parser.separateClasses(code.toString());
-				for (String classCode : classes) {
-					evaluateClass(classCode);
+				if (snippet.isParsed() ? snippet.getTrees().stream().anyMatch(tree -> tree instanceof ClassTree)
+						: parser.isClass(code.toString())) {
+					evaluateClasses(classDeclarations(snippet, code.toString()), snippet);
 				}
-			} else if (parser.isStaticVariable(input)) {
+			} else if (kind == Snippet.Kind.CLASS) {
+				evaluateClasses(classDeclarations(snippet, code.toString()), snippet);
+			} else if (kind == Snippet.Kind.DECLARATION && snippet.isStaticField()) {
 				// Add variable to state
-				handleVariableDeclaration(input);
+				handleVariableDeclaration(input, snippet);
 				if (state.getCompiledClass("Eval") == null) {
 					// Generate eval class with main method
 					StringBuilder evalCode = new StringBuilder();
 					evalCode.append("public class Eval {\n");
-					// Inject stored variables
-					evalCode = injectStoredStaticVariables(evalCode);
+					// Declare static variables as fields
+					evalCode = declareStaticFields(evalCode, null);
 					evalCode.append("public static void main(String[] args) {\n");
-					evalCode = injectStoredVariables(evalCode);
 					evalCode.append("}\n");
 					evalCode.append("}\n");
 					// Inject imports
 					evalCode = injectImports(evalCode);
 
 					// Compile the Eval class
-					compiler.compile("Eval.java", evalCode.toString());
+					compiler.compile("Eval.java", evalCode.toString(), Compiler.Profile.SNIPPET);
 					compiler.loadCompiledClass("Eval", evalCode.toString());
 				} else {
 					// Inject the static variable into the class, before the main method
@@ -457,22 +958,24 @@ public class Evaluator {
 					String[] lines = evalSource.split("\n");
 					for (String line : lines) {
 						if (line.contains("public static void main(String[] args) {")) {
-							// Inject the new static variable before the main method
-							newEvalCode.append(input).append("\n");
+							// Declare the new static variable before the main method
+							newEvalCode = declareStaticFields(newEvalCode, evalSource);
 						}
 						newEvalCode.append(line).append("\n");
 					}
 
 					// Compile the Eval class
-					compiler.compile("Eval.java", newEvalCode.toString());
+					compiler.compile("Eval.java", newEvalCode.toString(), Compiler.Profile.SNIPPET);
 					compiler.loadCompiledClass("Eval", newEvalCode.toString());
 				}
-			} else if (parser.isStatement(input)) {
-				evaluateStatement(input);
-			} else if (parser.isExpression(input)) {
+			} else if (kind == Snippet.Kind.STATEMENT && snippet.isBlock()) {
+				executeStatements(input);
+			} else if (kind == Snippet.Kind.STATEMENT || kind == Snippet.Kind.DECLARATION) {
+				evaluateStatement(input, snippet);
+			} else if (kind == Snippet.Kind.EXPRESSION) {
 				// Add semicolon to the expression incase its a statement without a semicolon
-				evaluateStatement(input + ';');
-			} else if (parser.isMethod(input)) {
+				evaluateStatement(input + ';', snippet);
+			} else if (kind == Snippet.Kind.METHOD) {
 				String className = "Eval";
 
 				// Check if Eval class already exists
@@ -483,103 +986,41 @@ public class Evaluator {
 						
 					// Line by line
 					String[] lines = evalSource.split("\n");
+					String newMethod = staticMethods(input, snippet);
+					int methodStart = -1;
 					for (String line : lines) {
 						if (line.contains("public static void main(String[] args) {")) {
-							// Make sure the new method is static
-							String newMethod = parser.makeStatic(input);
 							// Inject the new method before the main method
+							methodStart = newEvalCode.length();
 							newEvalCode.append(newMethod).append("\n");
 						}
 						newEvalCode.append(line).append("\n");
 					}
 
 					// Compile and execute the Eval class
-					compiler.compile(className + ".java", newEvalCode.toString());
+					compileMethods(newEvalCode.toString(), methodStart, newMethod, snippet);
 					compiler.loadCompiledClass(className, newEvalCode.toString());
 				} else {
 					// Wrap the method in the Eval class, generate empty main function
 					StringBuilder classCode = new StringBuilder();
 					classCode.append("public class ").append(className).append(" { ");
-					classCode = injectStoredVariables(classCode);
 					// Make the method static
-					String newMethod = parser.makeStatic(input);
+					String newMethod = staticMethods(input, snippet);
 					// Inject the new method
+					int methodStart = classCode.length();
 					classCode.append(newMethod);
 					classCode.append("public static void main(String[] args) {\n").append("}\n}");
+					int length = classCode.length();
 					classCode = injectImports(classCode);
+					methodStart += classCode.length() - length;
 
 					// Compile the class
-					compiler.compile(className + ".java", classCode.toString());
+					compileMethods(classCode.toString(), methodStart, newMethod, snippet);
 					compiler.loadCompiledClass(className, classCode.toString());
 				}
 			} else {
-				// Check if there is a main method
-				if (state.getCompiledClass("Eval") == null) {
-					// Generate eval class with main method
-					StringBuilder evalCode = new StringBuilder();
-					evalCode.append("public class Eval {\n");
-					// Inject stored variables
-					evalCode = injectStoredVariables(evalCode);
-					evalCode.append("public static void main(String[] args) {\n");
-
-					if (parser.isExpression(input)) {
-						evaluateExpression(input);
-					} else {
-						evalCode.append(input).append("\n");
-					}
-
-					evalCode.append("}\n");
-					evalCode.append("}\n");
-					// Inject imports
-					evalCode = injectImports(evalCode);
-
-					// Compile and execute the Eval class
-					compiler.compile("Eval.java", evalCode.toString());
-					compiler.loadCompiledClass("Eval", evalCode.toString());
-					Method mainMethod = state.getCompiledClass("Eval").getMethod("main", String[].class);
-					mainMethod.invoke(null, (Object) new String[0]);
-				} else {
-					// Inject the code into the main method
-					String evalSource = state.getClassSource("Eval");
-					StringBuilder newEvalCode = new StringBuilder();
-						
-					// Line by line
-					String[] lines = evalSource.split("\n");
-					boolean mainMethodFound = false;
-					boolean variablesInjected = false;
-					for (String line : lines) {
-						if (!variablesInjected && line.contains("public class Eval {")) {
-							newEvalCode.append(line).append("\n");
-							// Inject stored variables only if they are new and not already there
-							for (Map.Entry<String, Variable> entry : state.getStoredVariables().entrySet()) {
-								if (!evalSource.contains(entry.getValue().getInput())) {
-									newEvalCode.append("static ").append(entry.getValue().getInput());
-								}
-							}
-							variablesInjected = true;
-						} else if (line.contains("public static void main(String[] args) {")) {
-							mainMethodFound = true;
-							newEvalCode.append(line).append("\n");
-							// Inject old main body
-							String oldMainBody = parser.extractMainMethodBody(evalSource);
-							newEvalCode.append(oldMainBody).append("\n");
-							// Inject the new code
-							newEvalCode.append(code).append("\n");
-
-						} else if (mainMethodFound && !line.contains("}")) {
-							// Skip the old main method body
-							continue;
-						} else {
-							newEvalCode.append(line).append("\n");
-						}
-					}
-
-					// Compile and execute the Eval class
-					compiler.compile("Eval.java", newEvalCode.toString());
-					compiler.loadCompiledClass("Eval", newEvalCode.toString());
-					Method mainMethod = state.getCompiledClass("Eval").getMethod("main", String[].class);
-					mainMethod.invoke(null, (Object) new String[0]);
-				}
+				// Run just this submission; earlier statements are never replayed
+				executeStatements(input);
 			}
 		}
 	}
@@ -0,0 +1,907 @@
+package com.padlocks;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Evaluates simple expressions without javac, with static types so they behave as compiled code; parse
+// returns null before anything has run for an expression outside the subset
+class ExpressionInterpreter {
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+	private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+		"new", "this", "super", "class", "instanceof", "switch", "void", "var"
+	));
+	private static final String[] OPERATORS = {
+		">>>=", "<<=", ">>=", ">>>", "...", "->", "::", "++", "--", "&&", "||", "==", "!=", "<=", ">=",
+		"+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>",
+		"+", "-", "*", "/", "%", "&", "|", "^", "!", "~", "<", ">", "=", "?", ":"
+	};
+	// Binary operators from the loosest to the tightest binding level
+	private static final String[][] LEVELS = {
+		{ "||" }, { "&&" }, { "|" }, { "^" }, { "&" }, { "==", "!=" }, { "<", ">", "<=", ">=" },
+		{ "<<", ">>", ">>>" }, { "+", "-" }, { "*", "/", "%" }
+	};
+
+	static {
+		Class<?>[] primitives = { boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class };
+		for (Class<?> primitive : primitives) {
+			PRIMITIVES.put(primitive.getName(), primitive);
+		}
+	}
+
+	private final State state;
+	private long interpreted;
+	private long fallbacks;
+
+	// Thrown while parsing when the expression needs the compiler
+	private static class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	// Static type of the null literal
+	private static final class NullType {
+	}
+
+	// A type-checked expression tree node
+	interface Expression {
+		Class<?> type();
+
+		Object evaluate() throws Exception;
+	}
+
+	ExpressionInterpreter(State state) {
+		this.state = state;
+	}
+
+	// Parses and type-checks an expression, or returns null if it has to be compiled
+	Expression parse(String source) {
+		try {
+			Expression expression = read(source);
+			interpreted++;
+			return expression;
+		} catch (Unsupported e) {
+			fallbacks++;
+			return null;
+		}
+	}
+
+	// As parse, for input that has not been classified yet: a method call at the top is left to the evaluator's
+	// invocation path, and input that is not taken is not counted, as it may come back through parse
+	Expression parseOperation(String source) {
+		try {
+			Expression expression = read(source);
+			if (expression instanceof MethodCall) {
+				return null;
+			}
+			interpreted++;
+			return expression;
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	private Expression read(String source) throws Unsupported {
+		Reader reader = new Reader(source);
+		Expression expression = reader.parseExpression();
+		reader.skipSpace();
+		if (reader.position < source.length() || expression.type() == NullType.class) {
+			throw UNSUPPORTED;
+		}
+		return expression;
+	}
+
+	String getStatistics() {
+		return String.format("Interpreted expressions: %d, %d sent to the compiler", interpreted, fallbacks);
+	}
+
+	// Converts a value assigned to a variable of the given declared type, as an assignment would
+	static Object assignmentValue(Object value, String typeName) {
+		Class<?> type = PRIMITIVES.get(typeName.trim());
+		if (type == null || type == boolean.class || !(value instanceof Number || value instanceof Character)) {
+			return value;
+		}
+		return convert(value, type);
+	}
+
+	private class Reader {
+		private final String source;
+		private int position;
+
+		Reader(String source) {
+			this.source = source;
+		}
+
+		Expression parseExpression() throws Unsupported {
+			return parseBinary(0);
+		}
+
+		private Expression parseBinary(int level) throws Unsupported {
+			if (level == LEVELS.length) {
+				return parseUnary();
+			}
+			Expression left = parseBinary(level + 1);
+			while (true) {
+				skipSpace();
+				String operator = operatorAt(position);
+				if (operator == null || !Arrays.asList(LEVELS[level]).contains(operator)) {
+					return left;
+				}
+				position += operator.length();
+				Expression right = parseBinary(level + 1);
+				left = folded(binary(operator, left, right), left, right);
+			}
+		}
+
+		private Expression parseUnary() throws Unsupported {
+			skipSpace();
+			String operator = operatorAt(position);
+			if (operator != null) {
+				if (!operator.equals("+") && !operator.equals("-") && !operator.equals("!") && !operator.equals("~")) {
+					throw UNSUPPORTED;
+				}
+				position += operator.length();
+				skipSpace();
+				// -2147483648 and -9223372036854775808L are only valid as negated literals
+				if (operator.equals("-") && position < source.length() && Character.isDigit(source.charAt(position))) {
+					return parsePostfix(parseNumber(true));
+				}
+				Expression operand = parseUnary();
+				return folded(unary(operator, operand), operand, operand);
+			}
+			if (peek() == '(') {
+				int start = position;
+				position++;
+				skipSpace();
+				String name = parseIdentifier();
+				skipSpace();
+				if (name != null && PRIMITIVES.containsKey(name) && peek() == ')') {
+					position++;
+					Expression operand = parseUnary();
+					return folded(cast(PRIMITIVES.get(name), operand), operand, operand);
+				}
+				position = start + 1;
+				Expression inner = parseExpression();
+				skipSpace();
+				expect(')');
+				return parsePostfix(inner);
+			}
+			return parsePostfix(parsePrimary());
+		}
+
+		private Expression parsePostfix(Expression target) throws Unsupported {
+			while (true) {
+				skipSpace();
+				if (peek() == '[' || (peek() == '.' && position + 1 < source.length() && source.charAt(position + 1) == '.')) {
+					throw UNSUPPORTED;
+				}
+				if (peek() != '.') {
+					return target;
+				}
+				position++;
+				skipSpace();
+				String name = parseIdentifier();
+				skipSpace();
+				// Field access, method references and the like go to the compiler
+				if (name == null || peek() != '(') {
+					throw UNSUPPORTED;
+				}
+				position++;
+				List<Expression> arguments = new ArrayList<>();
+				skipSpace();
+				if (peek() == ')') {
+					position++;
+				} else {
+					while (true) {
+						arguments.add(parseExpression());
+						skipSpace();
+						if (peek() == ',') {
+							position++;
+						} else {
+							expect(')');
+							break;
+						}
+					}
+				}
+				target = methodCall(target, name, arguments);
+			}
+		}
+
+		private Expression parsePrimary() throws Unsupported {
+			skipSpace();
+			char c = peek();
+			if (Character.isDigit(c) || (c == '.' && position + 1 < source.length() && Character.isDigit(source.charAt(position + 1)))) {
+				return parseNumber(false);
+			}
+			if (c == '\'') {
+				position++;
+				char value = parseCharacter('\'');
+				expect('\'');
+				return literal(char.class, value);
+			}
+			if (c == '"') {
+				if (source.startsWith("\"\"\"", position)) {
+					throw UNSUPPORTED;
+				}
+				position++;
+				StringBuilder value = new StringBuilder();
+				while (peek() != '"') {
+					value.append(parseCharacter('"'));
+				}
+				position++;
+				// Interned, as javac does with every string literal
+				return literal(String.class, value.toString().intern());
+			}
+			String name = parseIdentifier();
+			if (name == null) {
+				throw UNSUPPORTED;
+			}
+			switch (name) {
+				case "true":
+					return literal(boolean.class, true);
+				case "false":
+					return literal(boolean.class, false);
+				case "null":
+					return literal(NullType.class, null);
+				default:
+					return variable(name);
+			}
+		}
+
+		private Expression parseNumber(boolean negated) throws Unsupported {
+			int start = position;
+			while (position < source.length() && (Character.isLetterOrDigit(peek()) || peek() == '_' || peek() == '.'
+					|| ((peek() == '+' || peek() == '-') && isExponent(source.charAt(position - 1), start)))) {
+				position++;
+			}
+			String text = source.substring(start, position);
+			if (text.endsWith("_") || text.contains("_.") || text.contains("._")) {
+				throw UNSUPPORTED;
+			}
+			String digits = text.replace("_", "");
+			char suffix = Character.toLowerCase(digits.charAt(digits.length() - 1));
+			boolean hex = digits.startsWith("0x") || digits.startsWith("0X");
+			try {
+				if (!hex && (suffix == 'f' || suffix == 'd' || digits.contains(".") || digits.contains("e") || digits.contains("E"))) {
+					if (digits.startsWith("0b") || digits.startsWith("0B")) {
+						throw UNSUPPORTED;
+					}
+					String number = (negated ? "-" : "") + (suffix == 'f' || suffix == 'd' ? digits.substring(0, digits.length() - 1) : digits);
+					if (suffix == 'f') {
+						float value = Float.parseFloat(number);
+						if (Float.isInfinite(value)) {
+							throw UNSUPPORTED;
+						}
+						return literal(float.class, value);
+					}
+					double value = Double.parseDouble(number);
+					if (Double.isInfinite(value)) {
+						throw UNSUPPORTED;
+					}
+					return literal(double.class, value);
+				}
+				boolean isLong = suffix == 'l';
+				String body = isLong ? digits.substring(0, digits.length() - 1) : digits;
+				int radix = 10;
+				if (hex) {
+					radix = 16;
+					body = body.substring(2);
+				} else if (body.startsWith("0b") || body.startsWith("0B")) {
+					radix = 2;
+					body = body.substring(2);
+				} else if (body.length() > 1 && body.startsWith("0")) {
+					radix = 8;
+					body = body.substring(1);
+				}
+				if (body.isEmpty() || body.startsWith("_")) {
+					throw UNSUPPORTED;
+				}
+				if (isLong) {
+					long value = radix == 10 ? parseDecimal(body, Long.MAX_VALUE, negated) : Long.parseUnsignedLong(body, radix);
+					return literal(long.class, negated && radix != 10 ? -value : value);
+				}
+				int value = radix == 10 ? (int) parseDecimal(body, Integer.MAX_VALUE, negated) : Integer.parseUnsignedInt(body, radix);
+				return literal(int.class, negated && radix != 10 ? -value : value);
+			} catch (NumberFormatException e) {
+				throw UNSUPPORTED;
+			}
+		}
+
+		private boolean isExponent(char previous, int start) {
+			String text = source.substring(start, position).toLowerCase();
+			return (previous == 'e' || previous == 'E') && !text.startsWith("0x");
+		}
+
+		// Decimal literal with its sign applied; the magnitude may exceed max by one only when negated
+		private long parseDecimal(String digits, long max, boolean negated) throws Unsupported {
+			long magnitude = Long.parseUnsignedLong(digits);
+			if (Long.compareUnsigned(magnitude, max) > 0 && !(negated && magnitude - 1 == max)) {
+				throw UNSUPPORTED;
+			}
+			return negated ? -magnitude : magnitude;
+		}
+
+		private char parseCharacter(char quote) throws Unsupported {
+			if (position >= source.length() || peek() == '\n' || (peek() == quote && quote == '\'')) {
+				throw UNSUPPORTED;
+			}
+			char c = source.charAt(position++);
+			if (c != '\\') {
+				return c;
+			}
+			if (position >= source.length()) {
+				throw UNSUPPORTED;
+			}
+			char escape = source.charAt(position++);
+			switch (escape) {
+				case 'b':
+					return '\b';
+				case 't':
+					return '\t';
+				case 'n':
+					return '\n';
+				case 'f':
+					return '\f';
+				case 'r':
+					return '\r';
+				case '"':
+				case '\'':
+				case '\\':
+					return escape;
+				case 'u':
+					while (peek() == 'u') {
+						position++;
+					}
+					if (position + 4 > source.length()) {
+						throw UNSUPPORTED;
+					}
+					try {
+						char unicode = (char) Integer.parseInt(source.substring(position, position + 4), 16);
+						position += 4;
+						return unicode;
+					} catch (NumberFormatException e) {
+						throw UNSUPPORTED;
+					}
+				default:
+					if (escape < '0' || escape > '7') {
+						throw UNSUPPORTED;
+					}
+					// Octal escape of up to three digits, at most \377
+					int value = escape - '0';
+					int maxDigits = escape <= '3' ? 2 : 1;
+					for (int i = 0; i < maxDigits && peek() >= '0' && peek() <= '7'; i++) {
+						value = value * 8 + (source.charAt(position++) - '0');
+					}
+					return (char) value;
+			}
+		}
+
+		private String parseIdentifier() {
+			if (position >= source.length() || !Character.isJavaIdentifierStart(peek())) {
+				return null;
+			}
+			int start = position;
+			while (position < source.length() && Character.isJavaIdentifierPart(peek())) {
+				position++;
+			}
+			return source.substring(start, position);
+		}
+
+		private String operatorAt(int index) {
+			for (String operator : OPERATORS) {
+				if (source.startsWith(operator, index)) {
+					return operator;
+				}
+			}
+			return null;
+		}
+
+		void skipSpace() {
+			while (position < source.length() && Character.isWhitespace(peek())) {
+				position++;
+			}
+		}
+
+		private char peek() {
+			return position < source.length() ? source.charAt(position) : '\0';
+		}
+
+		private void expect(char c) throws Unsupported {
+			if (peek() != c) {
+				throw UNSUPPORTED;
+			}
+			position++;
+		}
+	}
+
+	private static Expression literal(Class<?> type, Object value) {
+		return new Literal(type, value);
+	}
+
+	private static final class Literal implements Expression {
+		private final Class<?> type;
+		private final Object value;
+
+		Literal(Class<?> type, Object value) {
+			this.type = type;
+			this.value = value;
+		}
+
+		@Override
+		public Class<?> type() {
+			return type;
+		}
+
+		@Override
+		public Object evaluate() {
+			return value;
+		}
+	}
+
+	// A method call, told apart so that a call at the top of the input can be routed as one
+	private static final class MethodCall implements Expression {
+		private final Class<?> type;
+		private final Evaluation evaluation;
+
+		MethodCall(Class<?> type, Evaluation evaluation) {
+			this.type = type;
+			this.evaluation = evaluation;
+		}
+
+		@Override
+		public Class<?> type() {
+			return type;
+		}
+
+		@Override
+		public Object evaluate() throws Exception {
+			return evaluation.evaluate();
+		}
+	}
+
+	// An operator applied to primitive or string literals is a constant expression, which javac works out
+	// while compiling, interning a string result; one that throws, e.g. 1 / 0, is left to throw when run
+	private static Expression folded(Expression expression, Expression left, Expression right) {
+		if (!isConstant(left) || !isConstant(right)) {
+			return expression;
+		}
+		try {
+			Object value = expression.evaluate();
+			return literal(expression.type(), value instanceof String ? ((String) value).intern() : value);
+		} catch (Exception e) {
+			return expression;
+		}
+	}
+
+	private static boolean isConstant(Expression expression) {
+		return expression instanceof Literal && expression.type() != NullType.class;
+	}
+
+	private interface Evaluation {
+		Object evaluate() throws Exception;
+	}
+
+	private static Expression node(Class<?> type, Evaluation evaluation) {
+		return new Expression() {
+			@Override
+			public Class<?> type() {
+				return type;
+			}
+
+			@Override
+			public Object evaluate() throws Exception {
+				return evaluation.evaluate();
+			}
+		};
+	}
+
+	private Expression variable(String name) throws Unsupported {
+		Variable variable = state.getStoredVariable(name);
+		if (variable == null || RESERVED.contains(name)) {
+			throw UNSUPPORTED;
+		}
+		Class<?> type = staticType(variable);
+		if (type.isPrimitive()) {
+			Object value = variable.getValue();
+			if (type == boolean.class ? !(value instanceof Boolean) : !(value instanceof Number || value instanceof Character)) {
+				throw UNSUPPORTED;
+			}
+			return node(type, () -> convert(variable.getValue(), type));
+		}
+		return node(type, variable::getValue);
+	}
+
+	// Declared type of a stored variable, resolved against its live value where possible
+	private Class<?> staticType(Variable variable) throws Unsupported {
+		String type = variable.getType().trim();
+		if (type.equals("var") || type.contains("[") || type.contains("...")) {
+			throw UNSUPPORTED;
+		}
+		if (PRIMITIVES.containsKey(type)) {
+			return PRIMITIVES.get(type);
+		}
+		String raw = type.contains("<") ? type.substring(0, type.indexOf('<')).trim() : type;
+		Object value = variable.getValue();
+		if (value != null) {
+			Class<?> match = findSupertype(value.getClass(), raw);
+			if (match == null) {
+				throw UNSUPPORTED;
+			}
+			return match;
+		}
+		Class<?> compiled = state.getCompiledClass(raw);
+		if (compiled != null) {
+			return compiled;
+		}
+		try {
+			return Class.forName(raw.contains(".") ? raw : "java.lang." + raw);
+		} catch (ClassNotFoundException e) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	private static Class<?> findSupertype(Class<?> runtimeClass, String name) {
+		Deque<Class<?>> pending = new ArrayDeque<>();
+		pending.add(runtimeClass);
+		while (!pending.isEmpty()) {
+			Class<?> candidate = pending.poll();
+			if (candidate.getSimpleName().equals(name) || candidate.getName().equals(name)) {
+				return candidate;
+			}
+			if (candidate.getSuperclass() != null) {
+				pending.add(candidate.getSuperclass());
+			}
+			pending.addAll(Arrays.asList(candidate.getInterfaces()));
+		}
+		return null;
+	}
+
+	private static Expression unary(String operator, Expression operand) throws Unsupported {
+		Class<?> type = MemberIndex.unboxed(operand.type());
+		if (operator.equals("!")) {
+			if (type != boolean.class) {
+				throw UNSUPPORTED;
+			}
+			return node(boolean.class, () -> !(Boolean) operand.evaluate());
+		}
+		if (!isNumeric(type) || (operator.equals("~") && !isIntegral(type))) {
+			throw UNSUPPORTED;
+		}
+		Class<?> promoted = unaryPromotion(type);
+		return node(promoted, () -> {
+			Object value = convert(operand.evaluate(), promoted);
+			switch (operator) {
+				case "+":
+					return value;
+				case "~":
+					return promoted == int.class ? (Object) ~(Integer) value : (Object) ~(Long) value;
+				default:
+					if (promoted == int.class) {
+						return -(Integer) value;
+					} else if (promoted == long.class) {
+						return -(Long) value;
+					} else if (promoted == float.class) {
+						return -(Float) value;
+					}
+					return -(Double) value;
+			}
+		});
+	}
+
+	// Casts between primitive types, including unboxing followed by widening (JLS 5.5)
+	private static Expression cast(Class<?> target, Expression operand) throws Unsupported {
+		Class<?> source = operand.type();
+		Class<?> unboxed = MemberIndex.unboxed(source);
+		boolean allowed = target == boolean.class
+			? unboxed == boolean.class
+			: isNumeric(unboxed) && (source.isPrimitive() || unboxed == target || MemberIndex.isWidening(unboxed, target));
+		if (!allowed) {
+			throw UNSUPPORTED;
+		}
+		return node(target, () -> convert(operand.evaluate(), target));
+	}
+
+	private static Expression binary(String operator, Expression left, Expression right) throws Unsupported {
+		Class<?> leftType = left.type();
+		Class<?> rightType = right.type();
+		switch (operator) {
+			case "&&":
+			case "||":
+				if (MemberIndex.unboxed(leftType) != boolean.class || MemberIndex.unboxed(rightType) != boolean.class) {
+					throw UNSUPPORTED;
+				}
+				boolean and = operator.equals("&&");
+				return node(boolean.class, () -> {
+					boolean first = (Boolean) left.evaluate();
+					return and ? first && (Boolean) right.evaluate() : first || (Boolean) right.evaluate();
+				});
+			case "==":
+			case "!=":
+				return equality(operator.equals("=="), left, right);
+			case "+":
+				if (leftType == String.class || rightType == String.class) {
+					return node(String.class, () -> String.valueOf(left.evaluate()) + right.evaluate());
+				}
+				return arithmetic(operator, left, right);
+			case "<<":
+			case ">>":
+			case ">>>":
+				return shift(operator, left, right);
+			case "&":
+			case "|":
+			case "^":
+				if (MemberIndex.unboxed(leftType) == boolean.class && MemberIndex.unboxed(rightType) == boolean.class) {
+					return node(boolean.class, () -> {
+						boolean first = (Boolean) left.evaluate();
+						boolean second = (Boolean) right.evaluate();
+						return operator.equals("&") ? first & second : operator.equals("|") ? first | second : first ^ second;
+					});
+				}
+				if (!isIntegral(MemberIndex.unboxed(leftType)) || !isIntegral(MemberIndex.unboxed(rightType))) {
+					throw UNSUPPORTED;
+				}
+				return arithmetic(operator, left, right);
+			default:
+				return arithmetic(operator, left, right);
+		}
+	}
+
+	// Arithmetic, bitwise and relational operators after binary numeric promotion (JLS 5.6.2)
+	private static Expression arithmetic(String operator, Expression left, Expression right) throws Unsupported {
+		Class<?> leftType = MemberIndex.unboxed(left.type());
+		Class<?> rightType = MemberIndex.unboxed(right.type());
+		if (!isNumeric(leftType) || !isNumeric(rightType)) {
+			throw UNSUPPORTED;
+		}
+		Class<?> promoted = binaryPromotion(leftType, rightType);
+		boolean relational = operator.equals("<") || operator.equals(">") || operator.equals("<=") || operator.equals(">=");
+		return node(relational ? boolean.class : promoted, () -> {
+			Object first = convert(left.evaluate(), promoted);
+			Object second = convert(right.evaluate(), promoted);
+			if (promoted == int.class) {
+				return intOperation(operator, (Integer) first, (Integer) second);
+			} else if (promoted == long.class) {
+				return longOperation(operator, (Long) first, (Long) second);
+			} else if (promoted == float.class) {
+				return floatOperation(operator, (Float) first, (Float) second);
+			}
+			return doubleOperation(operator, (Double) first, (Double) second);
+		});
+	}
+
+	private static Object intOperation(String operator, int a, int b) {
+		switch (operator) {
+			case "+": return a + b;
+			case "-": return a - b;
+			case "*": return a * b;
+			case "/": return a / b;
+			case "%": return a % b;
+			case "&": return a & b;
+			case "|": return a | b;
+			case "^": return a ^ b;
+			case "<": return a < b;
+			case ">": return a > b;
+			case "<=": return a <= b;
+			default: return a >= b;
+		}
+	}
+
+	private static Object longOperation(String operator, long a, long b) {
+		switch (operator) {
+			case "+": return a + b;
+			case "-": return a - b;
+			case "*": return a * b;
+			case "/": return a / b;
+			case "%": return a % b;
+			case "&": return a & b;
+			case "|": return a | b;
+			case "^": return a ^ b;
+			case "<": return a < b;
+			case ">": return a > b;
+			case "<=": return a <= b;
+			default: return a >= b;
+		}
+	}
+
+	private static Object floatOperation(String operator, float a, float b) {
+		switch (operator) {
+			case "+": return a + b;
+			case "-": return a - b;
+			case "*": return a * b;
+			case "/": return a / b;
+			case "%": return a % b;
+			case "<": return a < b;
+			case ">": return a > b;
+			case "<=": return a <= b;
+			default: return a >= b;
+		}
+	}
+
+	private static Object doubleOperation(String operator, double a, double b) {
+		switch (operator) {
+			case "+": return a + b;
+			case "-": return a - b;
+			case "*": return a * b;
+			case "/": return a / b;
+			case "%": return a % b;
+			case "<": return a < b;
+			case ">": return a > b;
+			case "<=": return a <= b;
+			default: return a >= b;
+		}
+	}
+
+	// Shift operands are promoted separately; the result has the type of the left operand (JLS 15.19)
+	private static Expression shift(String operator, Expression left, Expression right) throws Unsupported {
+		Class<?> leftType = MemberIndex.unboxed(left.type());
+		Class<?> rightType = MemberIndex.unboxed(right.type());
+		if (!isIntegral(leftType) || !isIntegral(rightType)) {
+			throw UNSUPPORTED;
+		}
+		Class<?> promoted = unaryPromotion(leftType);
+		return node(promoted, () -> {
+			Object value = convert(left.evaluate(), promoted);
+			long distance = (Long) convert(right.evaluate(), long.class);
+			if (promoted == int.class) {
+				int a = (Integer) value;
+				return operator.equals("<<") ? a << distance : operator.equals(">>") ? a >> distance : a >>> distance;
+			}
+			long a = (Long) value;
+			return operator.equals("<<") ? a << distance : operator.equals(">>") ? a >> distance : a >>> distance;
+		});
+	}
+
+	// Numeric or boolean comparison when either side is primitive, reference comparison otherwise (JLS 15.21)
+	private static Expression equality(boolean equal, Expression left, Expression right) throws Unsupported {
+		Class<?> leftType = left.type();
+		Class<?> rightType = right.type();
+		if (leftType.isPrimitive() || rightType.isPrimitive()) {
+			Class<?> leftUnboxed = MemberIndex.unboxed(leftType);
+			Class<?> rightUnboxed = MemberIndex.unboxed(rightType);
+			if (leftUnboxed == boolean.class && rightUnboxed == boolean.class) {
+				return node(boolean.class, () -> (((Boolean) left.evaluate()).booleanValue() == (Boolean) right.evaluate()) == equal);
+			}
+			if (!isNumeric(leftUnboxed) || !isNumeric(rightUnboxed)) {
+				throw UNSUPPORTED;
+			}
+			Class<?> promoted = binaryPromotion(leftUnboxed, rightUnboxed);
+			return node(boolean.class, () -> {
+				// Compare with the promoted type's own == so NaN and -0.0 behave as compiled code
+				Object a = convert(left.evaluate(), promoted);
+				Object b = convert(right.evaluate(), promoted);
+				boolean same;
+				if (promoted == int.class) {
+					same = (int) (Integer) a == (Integer) b;
+				} else if (promoted == long.class) {
+					same = (long) (Long) a == (Long) b;
+				} else if (promoted == float.class) {
+					same = (float) (Float) a == (Float) b;
+				} else {
+					same = (double) (Double) a == (Double) b;
+				}
+				return same == equal;
+			});
+		}
+		// Reference types must be castable to one another
+		if (leftType != NullType.class && rightType != NullType.class
+				&& !leftType.isAssignableFrom(rightType) && !rightType.isAssignableFrom(leftType)
+				&& !leftType.isInterface() && !rightType.isInterface()) {
+			throw UNSUPPORTED;
+		}
+		return node(boolean.class, () -> (left.evaluate() == right.evaluate()) == equal);
+	}
+
+	// Public instance or static method on the static type of the receiver, chosen as javac would
+	private static Expression methodCall(Expression receiver, String name, List<Expression> arguments) throws Unsupported {
+		Class<?> type = receiver.type();
+		if (type.isPrimitive() || type.isArray() || type == NullType.class || !Modifier.isPublic(type.getModifiers())) {
+			throw UNSUPPORTED;
+		}
+		Class<?>[] argumentTypes = new Class<?>[arguments.size()];
+		for (int i = 0; i < argumentTypes.length; i++) {
+			Class<?> argumentType = arguments.get(i).type();
+			argumentTypes[i] = argumentType == NullType.class ? null : argumentType;
+		}
+
+		MemberIndex members = MemberIndex.of(type);
+		for (Method candidate : members.getMethods(name)) {
+			if (candidate.getParameterCount() != argumentTypes.length && !candidate.isVarArgs()) {
+				continue;
+			}
+			for (Type parameter : candidate.getGenericParameterTypes()) {
+				if (!(parameter instanceof Class)) {
+					// Generic parameters need type inference
+					throw UNSUPPORTED;
+				}
+			}
+		}
+		Method method = members.findMethod(name, argumentTypes);
+		if (method != null && MemberIndex.isVariableArityCall(method, argumentTypes)) {
+			throw UNSUPPORTED;
+		}
+
+		method = method == null ? null : MemberIndex.accessible(method, type);
+		Type returnType = method == null ? null : method.getGenericReturnType();
+		if (method == null || method.getReturnType() == void.class
+				|| !(returnType instanceof Class || returnType instanceof ParameterizedType)) {
+			throw UNSUPPORTED;
+		}
+
+		Method target = method;
+		Class<?>[] parameters = method.getParameterTypes();
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+		return new MethodCall(method.getReturnType(), () -> {
+			Object instance = receiver.evaluate();
+			if (instance == null && !isStatic) {
+				throw new NullPointerException("Cannot invoke " + name + "() on null");
+			}
+			Object[] values = new Object[parameters.length];
+			for (int i = 0; i < values.length; i++) {
+				Object value = arguments.get(i).evaluate();
+				values[i] = parameters[i].isPrimitive() ? convert(value, parameters[i]) : value;
+			}
+			return target.invoke(isStatic ? null : instance, values);
+		});
+	}
+
+	private static Object convert(Object value, Class<?> type) {
+		if (type == boolean.class) {
+			return (Boolean) value;
+		}
+		if (value instanceof Character) {
+			value = (int) (Character) value;
+		}
+		Number number = (Number) value;
+		if (type == int.class) {
+			return number.intValue();
+		} else if (type == long.class) {
+			return number.longValue();
+		} else if (type == double.class) {
+			return number.doubleValue();
+		} else if (type == float.class) {
+			return number.floatValue();
+		} else if (type == short.class) {
+			return number.shortValue();
+		} else if (type == byte.class) {
+			return number.byteValue();
+		}
+		return (char) number.intValue();
+	}
+
+	private static boolean isNumeric(Class<?> type) {
+		return type != null && type != boolean.class && type.isPrimitive();
+	}
+
+	private static boolean isIntegral(Class<?> type) {
+		return isNumeric(type) && type != float.class && type != double.class;
+	}
+
+	private static Class<?> unaryPromotion(Class<?> type) {
+		return type == byte.class || type == short.class || type == char.class ? int.class : type;
+	}
+
+	private static Class<?> binaryPromotion(Class<?> left, Class<?> right) {
+		if (left == double.class || right == double.class) {
+			return double.class;
+		} else if (left == float.class || right == float.class) {
+			return float.class;
+		} else if (left == long.class || right == long.class) {
+			return long.class;
+		}
+		return int.class;
+	}
+}
@@ -0,0 +1,58 @@
+package com.padlocks;
+
+import java.util.List;
+
+import org.jline.reader.Candidate;
+import org.jline.reader.Completer;
+import org.jline.reader.LineReader;
+import org.jline.reader.ParsedLine;
+
+// Completes the word at the cursor, or the members of what is before a dot, from the session's indexes
+class JavaCompleter implements Completer {
+	// Candidates per lookup; JLine would have to page through more than that anyway
+	static final int LIMIT = 1000;
+	private static final SymbolIndex KEYWORDS = new SymbolIndex(Keywords.get());
+
+	private final State state;
+
+	JavaCompleter(State state) {
+		this.state = state;
+	}
+
+	@Override
+	public void complete(LineReader reader, ParsedLine line, List<Candidate> candidates) {
+		// JLine splits words on whitespace only, so complete the dotted name at the end of the word, e.g. in max(x.ge
+		String word = line.word().substring(0, line.wordCursor());
+		int start = word.length();
+		while (start > 0 && (Character.isJavaIdentifierPart(word.charAt(start - 1)) || word.charAt(start - 1) == '.')) {
+			start--;
+		}
+		// Candidates replace the whole word, so they keep what comes before the name
+		String head = word.substring(0, start);
+		String name = word.substring(start);
+		int dot = name.lastIndexOf('.');
+		if (dot == -1) {
+			int count = state.getSymbols().complete(name, LIMIT, symbol -> candidates.add(candidate(head, symbol, true)));
+			KEYWORDS.complete(name, LIMIT - count, keyword -> candidates.add(candidate(head, keyword, true)));
+			return;
+		}
+
+		String receiver = name.substring(0, dot);
+		Variable variable = state.getStoredVariable(receiver);
+		boolean statics = variable == null;
+		Class<?> type = statics ? TypeResolver.resolveClass(state, receiver)
+			: variable.getValue() != null ? variable.getValue().getClass() : null;
+		if (type == null) {
+			return;
+		}
+		// No space after a member, as a call or field access follows
+		String qualifier = head + receiver + ".";
+		MemberIndex.of(type).memberNames(statics).complete(name.substring(dot + 1), LIMIT,
+			member -> candidates.add(candidate(qualifier, member, false)));
+	}
+
+	// Shown as the name alone; complete adds a space after it once chosen
+	private static Candidate candidate(String head, String name, boolean complete) {
+		return new Candidate(head + name, name, null, null, null, null, complete);
+	}
+}
@@ -0,0 +1,266 @@
+package com.padlocks;
+
+import java.util.Arrays;
+
+// Single-pass tokenizer shared by the input loop, the parser and the highlighter; tokens are offsets into
+// the source, and appending text resumes at the last token
+class JavaLexer {
+	enum Kind {
+		IDENTIFIER, NUMBER, STRING, TEXT_BLOCK, CHARACTER, LINE_COMMENT, BLOCK_COMMENT, OPERATOR, SEPARATOR
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	// Longest first, so the first match is the maximal munch
+	private static final String[] OPERATORS = {
+		">>>=", "<<=", ">>=", ">>>", "...", "->", "::", "++", "--", "&&", "||", "==", "!=", "<=", ">=", "+=", "-=",
+		"*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>", "=", ">", "<", "!", "~", "?", ":", "+", "-", "*", "/",
+		"&", "|", "^", "%"
+	};
+	private static final String SEPARATORS = "(){}[];,.@";
+
+	private final StringBuilder source = new StringBuilder();
+	private byte[] kinds = new byte[64];
+	private int[] starts = new int[64];
+	private int[] ends = new int[64];
+	private int count;
+	private int braceDepth;
+	private boolean open;
+
+	static JavaLexer lex(CharSequence code) {
+		JavaLexer lexer = new JavaLexer();
+		lexer.append(code);
+		return lexer;
+	}
+
+	// Adds text to the source and lexes it, together with the last token in case the text extends it
+	JavaLexer append(CharSequence text) {
+		int resume = 0;
+		if (count > 0) {
+			count--;
+			resume = starts[count];
+			if (is(count, '{')) {
+				braceDepth--;
+			} else if (is(count, '}')) {
+				braceDepth++;
+			}
+		}
+		source.append(text);
+		open = false;
+		scan(resume);
+		return this;
+	}
+
+	CharSequence source() {
+		return source;
+	}
+
+	int size() {
+		return count;
+	}
+
+	Kind kind(int i) {
+		return KINDS[kinds[i]];
+	}
+
+	int start(int i) {
+		return starts[i];
+	}
+
+	int end(int i) {
+		return ends[i];
+	}
+
+	String text(int i) {
+		return source.substring(starts[i], ends[i]);
+	}
+
+	boolean is(int i, char c) {
+		return ends[i] - starts[i] == 1 && source.charAt(starts[i]) == c;
+	}
+
+	boolean is(int i, String text) {
+		int length = ends[i] - starts[i];
+		if (length != text.length()) {
+			return false;
+		}
+		for (int j = 0; j < length; j++) {
+			if (source.charAt(starts[i] + j) != text.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean isComment(int i) {
+		return kinds[i] == Kind.LINE_COMMENT.ordinal() || kinds[i] == Kind.BLOCK_COMMENT.ordinal();
+	}
+
+	// Index of the first token at or after i that is not a comment, or size() if there is none
+	int skipComments(int i) {
+		while (i < count && isComment(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	// Index of the last token before i that is not a comment, or -1 if there is none
+	int previous(int i) {
+		i--;
+		while (i >= 0 && isComment(i)) {
+			i--;
+		}
+		return i;
+	}
+
+	// Opening minus closing braces outside literals and comments
+	int braceDepth() {
+		return braceDepth;
+	}
+
+	// Whether the source ends inside a block comment or text block
+	boolean isOpen() {
+		return open;
+	}
+
+	// Whether more lines are needed before the source can be evaluated
+	boolean isIncomplete() {
+		return braceDepth > 0 || open;
+	}
+
+	private void scan(int i) {
+		int length = source.length();
+		while (i < length) {
+			char c = source.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			int start = i;
+			Kind kind;
+			if (Character.isJavaIdentifierStart(c)) {
+				kind = Kind.IDENTIFIER;
+				i++;
+				while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+					i++;
+				}
+			} else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(source.charAt(i + 1)))) {
+				kind = Kind.NUMBER;
+				i = scanNumber(i);
+			} else if (c == '"' && startsWith(i, "\"\"\"")) {
+				kind = Kind.TEXT_BLOCK;
+				int close = indexOfUnescaped("\"\"\"", i + 3);
+				open = close == -1;
+				i = open ? length : close + 3;
+			} else if (c == '"' || c == '\'') {
+				kind = c == '"' ? Kind.STRING : Kind.CHARACTER;
+				i = scanQuoted(i, c);
+			} else if (c == '/' && startsWith(i, "//")) {
+				kind = Kind.LINE_COMMENT;
+				int newline = source.indexOf("\n", i);
+				i = newline == -1 ? length : newline;
+			} else if (c == '/' && startsWith(i, "/*")) {
+				kind = Kind.BLOCK_COMMENT;
+				int close = source.indexOf("*/", i + 2);
+				open = close == -1;
+				i = open ? length : close + 2;
+			} else if (SEPARATORS.indexOf(c) != -1 && !startsWith(i, "...")) {
+				kind = Kind.SEPARATOR;
+				i++;
+				if (c == '{') {
+					braceDepth++;
+				} else if (c == '}') {
+					braceDepth--;
+				}
+			} else {
+				kind = Kind.OPERATOR;
+				i += operatorLength(i);
+			}
+			add(kind, start, i);
+		}
+	}
+
+	private void add(Kind kind, int start, int end) {
+		if (count == starts.length) {
+			kinds = Arrays.copyOf(kinds, count * 2);
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		}
+		kinds[count] = (byte) kind.ordinal();
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	// Digits, letters, underscores and dots, plus the sign of an exponent, e.g. 1_000L, 0x1F, 1.5e-3
+	private int scanNumber(int i) {
+		boolean hex = startsWith(i, "0x") || startsWith(i, "0X");
+		int length = source.length();
+		while (i < length) {
+			char c = source.charAt(i);
+			if (Character.isLetterOrDigit(c) || c == '_' || c == '.') {
+				i++;
+			} else if ((c == '+' || c == '-') && isExponent(source.charAt(i - 1), hex)) {
+				i++;
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static boolean isExponent(char c, boolean hex) {
+		return hex ? c == 'p' || c == 'P' : c == 'e' || c == 'E';
+	}
+
+	// A string or char literal ends at its closing quote, or unterminated at the end of the line
+	private int scanQuoted(int i, char quote) {
+		int length = source.length();
+		i++;
+		while (i < length) {
+			char c = source.charAt(i);
+			if (c == quote) {
+				return i + 1;
+			}
+			if (c == '\n') {
+				return i;
+			}
+			i += c == '\\' ? 2 : 1;
+		}
+		return length;
+	}
+
+	private int indexOfUnescaped(String text, int from) {
+		int length = source.length();
+		for (int i = from; i < length; i++) {
+			char c = source.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == text.charAt(0) && startsWith(i, text)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int operatorLength(int i) {
+		for (String operator : OPERATORS) {
+			if (startsWith(i, operator)) {
+				return operator.length();
+			}
+		}
+		// Not Java, e.g. '#' or a stray backslash
+		return 1;
+	}
+
+	private boolean startsWith(int i, String prefix) {
+		if (i + prefix.length() > source.length()) {
+			return false;
+		}
+		for (int j = 0; j < prefix.length(); j++) {
+			if (source.charAt(i + j) != prefix.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,57 +1,172 @@
 package com.padlocks;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.jline.reader.LineReader;
 import org.jline.reader.impl.DefaultHighlighter;
 import org.jline.utils.AttributedString;
 import org.jline.utils.AttributedStringBuilder;
 import org.jline.utils.AttributedStyle;
 
+// Highlights a line at a time, keeping each line's starting lexer state and styled text, so a keystroke
+// restyles only the lines whose text or starting state changed
 class JavaSyntaxHighlighter extends DefaultHighlighter {
+	private static final byte CODE = 0;
+	private static final byte COMMENT = 1;
+	private static final byte TEXT_BLOCK = 2;
+
+	private List<Line> lines = new ArrayList<>();
+
+	private static class Line {
+		final String text;
+		// Lexer state at the start of the line and after its end
+		final byte entry;
+		final byte exit;
+		final AttributedString styled;
+
+		Line(String text, byte entry, byte exit, AttributedString styled) {
+			this.text = text;
+			this.entry = entry;
+			this.exit = exit;
+			this.styled = styled;
+		}
+
+		boolean matches(String buffer, int start, int end, byte state) {
+			return entry == state && text.length() == end - start && buffer.regionMatches(start, text, 0, text.length());
+		}
+	}
+
 	@Override
 	public AttributedString highlight(LineReader reader, String buffer) {
-		AttributedStringBuilder builder = new AttributedStringBuilder();
-		String[] tokens = buffer.split("(?<=\\s)|(?=\\s)");
-		boolean inComment = false;
-
-		for (String token : tokens) {
-			// Check if the token is part of a comment
-			// TODO: Fix multiline comments
-			if (inComment) {
-				builder.append(token, AttributedStyle.DEFAULT);
-				if (token.contains("*/")) {
-					inComment = false;
-				}
-			} else if (token.trim().startsWith("//")) {
-				builder.append(token, AttributedStyle.DEFAULT);
-				inComment = true;
-				if (token.contains("\n")) {
-					inComment = false;
-				}
-			} else if (token.trim().startsWith("/*")) {
-				builder.append(token, AttributedStyle.DEFAULT);
-				inComment = true;
-				if (token.contains("*/")) {
-					inComment = false;
-				}
-			// Check if the token is a keyword, apply the appropriate style
-			} else if (token.trim().isEmpty()) {
-				builder.append(token, AttributedStyle.DEFAULT);
-			} else if (Keywords.isDataType(token)) {
-				builder.append(token, Keywords.dataTypeStyle);
-			} else if (Keywords.isOperator(token)) {
-				builder.append(token, Keywords.operatorStyle);
-			} else if (Keywords.isAnnotation(token)) {
-				builder.append(token, Keywords.annotationStyle);
-			} else if (Keywords.isException(token)) {
-				builder.append(token, Keywords.exceptionStyle);
-			} else if (Keywords.isModifier(token)) {
-				builder.append(token, Keywords.modifierStyle);
-			} else if (Keywords.isControlStatement(token)) {
-				builder.append(token, Keywords.controlStatementStyle);
-			} else {
-				builder.append(token, AttributedStyle.DEFAULT);
+		List<Line> previous = lines;
+		List<Line> current = new ArrayList<>(previous.size() + 1);
+		// Lines added (or removed, if negative) since the last call; unchanged lines below the edit moved by this much
+		int shift = count(buffer, '\n') + 1 - previous.size();
+		AttributedStringBuilder builder = new AttributedStringBuilder(buffer.length());
+		byte state = CODE;
+		int start = 0;
+		for (int index = 0; ; index++) {
+			int newline = buffer.indexOf('\n', start);
+			int end = newline == -1 ? buffer.length() : newline;
+			Line line = cached(previous, index, buffer, start, end, state);
+			if (line == null) {
+				line = cached(previous, index - shift, buffer, start, end, state);
 			}
+			if (line == null) {
+				line = style(buffer.substring(start, end), state);
+			}
+			current.add(line);
+			builder.append(line.styled);
+			state = line.exit;
+			if (newline == -1) {
+				break;
+			}
+			// A line break inside a comment is part of it
+			builder.append("\n", state == COMMENT ? Keywords.commentStyle : AttributedStyle.DEFAULT);
+			start = newline + 1;
 		}
+		lines = current;
 		return builder.toAttributedString();
 	}
-}
\ No newline at end of file
+
+	private static Line cached(List<Line> lines, int index, String buffer, int start, int end, byte state) {
+		if (index < 0 || index >= lines.size()) {
+			return null;
+		}
+		Line line = lines.get(index);
+		return line.matches(buffer, start, end, state) ? line : null;
+	}
+
+	private static Line style(String text, byte entry) {
+		AttributedStringBuilder builder = new AttributedStringBuilder(text.length());
+		int from = 0;
+		if (entry != CODE) {
+			// The comment or text block the previous line left open runs on into this one
+			AttributedStyle style = entry == COMMENT ? Keywords.commentStyle : AttributedStyle.DEFAULT;
+			int close = entry == COMMENT ? commentEnd(text) : textBlockEnd(text);
+			if (close == -1) {
+				builder.append(text, style);
+				return new Line(text, entry, entry, builder.toAttributedString());
+			}
+			builder.append(text.substring(0, close), style);
+			from = close;
+		}
+
+		String code = text.substring(from);
+		JavaLexer tokens = JavaLexer.lex(code);
+		int written = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			// Whitespace between tokens
+			builder.append(code.substring(written, tokens.start(i)), AttributedStyle.DEFAULT);
+			builder.append(tokens.text(i), style(tokens, i));
+			written = tokens.end(i);
+		}
+		builder.append(code.substring(written), AttributedStyle.DEFAULT);
+
+		byte exit = CODE;
+		if (tokens.isOpen()) {
+			exit = tokens.kind(tokens.size() - 1) == JavaLexer.Kind.BLOCK_COMMENT ? COMMENT : TEXT_BLOCK;
+		}
+		return new Line(text, entry, exit, builder.toAttributedString());
+	}
+
+	// Index just past the */ that closes a comment, or -1 if the comment goes on past this line
+	private static int commentEnd(String text) {
+		int close = text.indexOf("*/");
+		return close == -1 ? -1 : close + 2;
+	}
+
+	// Index just past the """ that closes a text block, or -1 if the block goes on past this line
+	private static int textBlockEnd(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\\') {
+				i++;
+			} else if (text.startsWith("\"\"\"", i)) {
+				return i + 3;
+			}
+		}
+		return -1;
+	}
+
+	private static int count(String text, char c) {
+		int count = 0;
+		for (int i = text.indexOf(c); i != -1; i = text.indexOf(c, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	private static AttributedStyle style(JavaLexer tokens, int i) {
+		switch (tokens.kind(i)) {
+			case LINE_COMMENT:
+			case BLOCK_COMMENT:
+				return Keywords.commentStyle;
+			case OPERATOR:
+				return Keywords.isOperator(tokens.text(i)) ? Keywords.operatorStyle : AttributedStyle.DEFAULT;
+			case SEPARATOR:
+				// The '@' of an annotation is styled with its name
+				return tokens.is(i, '@') && i + 1 < tokens.size() && tokens.kind(i + 1) == JavaLexer.Kind.IDENTIFIER
+					? Keywords.annotationStyle : AttributedStyle.DEFAULT;
+			case IDENTIFIER:
+				break;
+			default:
+				return AttributedStyle.DEFAULT;
+		}
+
+		// Check if the token is a keyword, apply the appropriate style
+		String token = tokens.text(i);
+		if (i > 0 && tokens.is(i - 1, '@')) {
+			return Keywords.annotationStyle;
+		} else if (Keywords.isDataType(token)) {
+			return Keywords.dataTypeStyle;
+		} else if (Keywords.isException(token)) {
+			return Keywords.exceptionStyle;
+		} else if (Keywords.isModifier(token)) {
+			return Keywords.modifierStyle;
+		} else if (Keywords.isControlStatement(token)) {
+			return Keywords.controlStatementStyle;
+		}
+		return AttributedStyle.DEFAULT;
+	}
+}
@@ -2,44 +2,47 @@ package com.padlocks;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.jline.utils.AttributedStyle;
 
 class Keywords {
-  private static final List<String> dataTypes = Arrays.asList(
+  private static final Set<String> dataTypes = new HashSet<>(Arrays.asList(
 	"int", "double", "float", "char", "byte", "short", "long", "boolean", "void"
-  );
-  private static final List<String> literals = Arrays.asList(
+  ));
+  private static final Set<String> literals = new HashSet<>(Arrays.asList(
 	"true", "false", "null"
-  );
-  private static final List<String> operators = Arrays.asList(
+  ));
+  private static final Set<String> operators = new HashSet<>(Arrays.asList(
 	"+", "-", "*", "/", "%", "==", "!=", "<", ">", "<=", ">=", "&&", "||", "!", "=", 
 	"+=", "-=", "*=", "/=", "&", "|", "^", "~", "<<", ">>", ">>>", "++", "--", "?:"
-  );
-  private static final List<String> comments = Arrays.asList(
+  ));
+  private static final Set<String> comments = new HashSet<>(Arrays.asList(
 	"//", "/*", "*/", "/**", "*/"
-  );
-  private static final List<String> annotations = Arrays.asList(
+  ));
+  private static final Set<String> annotations = new HashSet<>(Arrays.asList(
 	"@Override", "@Deprecated", "@SuppressWarnings"
-  );
-  private static final List<String> brackets = Arrays.asList(
+  ));
+  private static final Set<String> brackets = new HashSet<>(Arrays.asList(
 	"{", "}", "(", ")", "[", "]"
-  );
-  private static final List<String> exceptions = Arrays.asList(
+  ));
+  private static final Set<String> exceptions = new HashSet<>(Arrays.asList(
 	"Exception"
-  );
-  private static final List<String> modifiers = Arrays.asList(
+  ));
+  private static final Set<String> modifiers = new HashSet<>(Arrays.asList(
 	"public", "private", "protected", "final", "static", "abstract", "synchronized", 
 	"native", "class", "interface", "extends", "implements", "package", "import", "super", 
 	"this", "new", "instanceof", "const", "volatile", "transient", "strictfp"
-  );
-  private static final List<String> controlStatements = Arrays.asList(
+  ));
+  private static final Set<String> controlStatements = new HashSet<>(Arrays.asList(
 	"if", "else", "switch", "case", "for", "while", "do", "break", "continue", "return", 
 	"try", "catch", "finally", "throw", "throws", "assert"
-  );
+  ));
 
-	private static final List<String> keywords = new ArrayList<>();
+	// Sets throughout, as the highlighter looks up every identifier it styles
+	private static final Set<String> keywords = new HashSet<>();
 
 	static {
 		keywords.addAll(dataTypes);
@@ -62,7 +65,7 @@ class Keywords {
 	static final AttributedStyle controlStatementStyle = AttributedStyle.DEFAULT.foreground(AttributedStyle.BLUE);
 
   static List<String> get() {
-	return keywords;
+	return new ArrayList<>(keywords);
   }
 
   static boolean isDataType(String token) {
@@ -0,0 +1,363 @@
+package com.padlocks;
+
+// Single-pass reader for an argument that is a Java literal; NONE for text javac would not accept as one
+class LiteralScanner {
+	// Returned for text that is not a literal, as null is the value of the null literal
+	static final Object NONE = new Object();
+	// Largest unsigned 64-bit value and its last digit per radix; worked out once, as
+	// Long.divideUnsigned goes through BigInteger for it
+	private static final long[] LIMITS = new long[17];
+	private static final int[] LAST_DIGITS = new int[17];
+
+	static {
+		for (int radix : new int[] { 2, 8, 10, 16 }) {
+			LIMITS[radix] = Long.divideUnsigned(-1L, radix);
+			LAST_DIGITS[radix] = (int) Long.remainderUnsigned(-1L, radix);
+		}
+	}
+
+	private LiteralScanner() {
+	}
+
+	static Object scan(String text) {
+		int length = text.length();
+		if (length == 0) {
+			return NONE;
+		}
+		char first = text.charAt(0);
+		if (first == '"') {
+			return string(text);
+		} else if (first == '\'') {
+			return character(text);
+		} else if (first == '-') {
+			return isNumberStart(text, 1) ? number(text, 1, true) : NONE;
+		} else if (isNumberStart(text, 0)) {
+			return number(text, 0, false);
+		} else if (text.equals("null")) {
+			return null;
+		// Any case, as arguments always were
+		} else if (text.equalsIgnoreCase("true")) {
+			return Boolean.TRUE;
+		} else if (text.equalsIgnoreCase("false")) {
+			return Boolean.FALSE;
+		}
+		return NONE;
+	}
+
+	private static boolean isNumberStart(String text, int i) {
+		return i < text.length() && (isDigit(text.charAt(i))
+			|| (text.charAt(i) == '.' && i + 1 < text.length() && isDigit(text.charAt(i + 1))));
+	}
+
+	private static Object number(String text, int start, boolean negated) {
+		int length = text.length();
+		int i = start;
+		int radix = 10;
+		if (text.charAt(i) == '0' && i + 1 < length) {
+			char prefix = lower(text.charAt(i + 1));
+			if (prefix == 'x') {
+				radix = 16;
+				i += 2;
+			} else if (prefix == 'b') {
+				radix = 2;
+				i += 2;
+			}
+		}
+		boolean leadingZero = radix == 10 && text.charAt(i) == '0';
+
+		// Whole part, accumulated unsigned; with a leading zero also in octal, as only what follows
+		// tells 017 from 017.5
+		long magnitude = 0;
+		long octal = 0;
+		boolean overflow = false;
+		boolean octalOverflow = false;
+		boolean octalDigits = true;
+		boolean underscoreLast = false;
+		int digits = 0;
+		for (; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '_') {
+				if (digits == 0) {
+					return NONE;
+				}
+				underscoreLast = true;
+				continue;
+			}
+			int digit = digit(c, radix);
+			if (digit < 0) {
+				break;
+			}
+			overflow |= !fits(magnitude, digit, radix);
+			magnitude = magnitude * radix + digit;
+			if (leadingZero) {
+				octalDigits &= digit < 8;
+				octalOverflow |= !fits(octal, digit, 8);
+				octal = octal * 8 + digit;
+			}
+			digits++;
+			underscoreLast = false;
+		}
+		if (underscoreLast) {
+			return NONE;
+		}
+
+		char next = i < length ? lower(text.charAt(i)) : 0;
+		boolean floating = radix == 16 ? next == '.' || next == 'p'
+			: radix == 10 && (next == '.' || next == 'e' || ((next == 'f' || next == 'd') && i == length - 1));
+		if (floating) {
+			return floating(text, i, radix == 16, digits);
+		}
+		if (digits == 0) {
+			return NONE;
+		}
+		if (leadingZero && digits > 1) {
+			if (!octalDigits) {
+				return NONE;
+			}
+			radix = 8;
+			magnitude = octal;
+			overflow = octalOverflow;
+		}
+		if (overflow) {
+			return NONE;
+		}
+
+		if (i == length) {
+			// int: decimal up to 2^31 when negated, other radixes any 32 bits
+			long max = radix == 10 ? (negated ? 1L << 31 : Integer.MAX_VALUE) : 0xFFFFFFFFL;
+			if (Long.compareUnsigned(magnitude, max) > 0) {
+				return NONE;
+			}
+			int value = (int) magnitude;
+			return negated ? -value : value;
+		}
+		char suffix = text.charAt(i);
+		if (i != length - 1) {
+			return NONE;
+		} else if (suffix == 'l' || suffix == 'L') {
+			if (radix == 10 && Long.compareUnsigned(magnitude, negated ? Long.MIN_VALUE : Long.MAX_VALUE) > 0) {
+				return NONE;
+			}
+			return negated ? -magnitude : magnitude;
+		} else if (radix == 10 && (suffix == 'S' || suffix == 'B')) {
+			// Not Java, but arguments have always accepted 5S and 5B for short and byte
+			long bound = suffix == 'S' ? Short.MAX_VALUE : Byte.MAX_VALUE;
+			if (Long.compareUnsigned(magnitude, negated ? bound + 1 : bound) > 0) {
+				return NONE;
+			}
+			long value = negated ? -magnitude : magnitude;
+			return suffix == 'S' ? (Object) (short) value : (Object) (byte) value;
+		}
+		return NONE;
+	}
+
+	// Checks the rest of a floating-point literal from the end of its whole part; the value itself
+	// comes from the JDK, which rounds exactly and accepts the same text, suffix included
+	private static Object floating(String text, int i, boolean hex, int digits) {
+		int length = text.length();
+		if (i < length && text.charAt(i) == '.') {
+			int end = digitRun(text, i + 1, hex ? 16 : 10);
+			if (end < 0) {
+				return NONE;
+			}
+			digits += end - i - 1;
+			i = end;
+		}
+		if (digits == 0) {
+			return NONE;
+		}
+		int mantissaEnd = i;
+		if (i < length && lower(text.charAt(i)) == (hex ? 'p' : 'e')) {
+			i++;
+			if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+				i++;
+			}
+			int end = digitRun(text, i, 10);
+			if (end <= i) {
+				return NONE;
+			}
+			i = end;
+		} else if (hex) {
+			// A hex floating-point literal needs its binary exponent
+			return NONE;
+		}
+		boolean isFloat = i < length && lower(text.charAt(i)) == 'f';
+		if (i < length && (isFloat || lower(text.charAt(i)) == 'd')) {
+			i++;
+		}
+		if (i != length) {
+			return NONE;
+		}
+
+		// javac rejects a literal that overflows, or that is not zero but rounds to it
+		String number = text.indexOf('_') == -1 ? text : text.replace("_", "");
+		if (isFloat) {
+			float value = Float.parseFloat(number);
+			return Float.isInfinite(value) || (value == 0 && hasNonzeroDigit(text, mantissaEnd, hex)) ? NONE : (Object) value;
+		}
+		double value = Double.parseDouble(number);
+		return Double.isInfinite(value) || (value == 0 && hasNonzeroDigit(text, mantissaEnd, hex)) ? NONE : (Object) value;
+	}
+
+	private static boolean hasNonzeroDigit(String text, int end, boolean hex) {
+		for (int i = 0; i < end; i++) {
+			if (digit(text.charAt(i), hex ? 16 : 10) > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// End of the digits and underscores from i, or -1 if an underscore is not between two digits
+	private static int digitRun(String text, int i, int radix) {
+		int length = text.length();
+		if (i < length && text.charAt(i) == '_') {
+			return -1;
+		}
+		while (i < length && (text.charAt(i) == '_' || digit(text.charAt(i), radix) >= 0)) {
+			i++;
+		}
+		return text.charAt(i - 1) == '_' ? -1 : i;
+	}
+
+	private static Object character(String text) {
+		int length = text.length();
+		if (length < 3 || text.charAt(length - 1) != '\'') {
+			return NONE;
+		}
+		char c = text.charAt(1);
+		if (c == '\'' || c == '\n') {
+			return NONE;
+		} else if (c != '\\') {
+			return length == 3 ? (Object) c : NONE;
+		}
+		long escape = escape(text, 2);
+		return escape >= 0 && escape >>> 16 == length - 1 ? (Object) (char) escape : NONE;
+	}
+
+	private static Object string(String text) {
+		int length = text.length();
+		if (length < 2 || text.charAt(length - 1) != '"' || text.startsWith("\"\"\"")) {
+			return NONE;
+		}
+		// Check the body first, so a string without escapes is copied in one go
+		boolean escaped = false;
+		for (int i = 1; i < length - 1; i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\n') {
+				return NONE;
+			} else if (c == '\\') {
+				escaped = true;
+				i++;
+			}
+		}
+		if (!escaped) {
+			return text.substring(1, length - 1).intern();
+		}
+		StringBuilder value = new StringBuilder(length);
+		int i = 1;
+		while (i < length - 1) {
+			char c = text.charAt(i);
+			if (c != '\\') {
+				value.append(c);
+				i++;
+				continue;
+			}
+			long escape = escape(text, i + 1);
+			if (escape < 0 || escape >>> 16 > length - 1) {
+				return NONE;
+			}
+			value.append((char) escape);
+			i = (int) (escape >>> 16);
+		}
+		return value.toString().intern();
+	}
+
+	// Decodes the escape whose backslash is just before i; returns the character in the low 16 bits
+	// and the index after the escape above them, or -1 if the escape is not valid Java
+	private static long escape(String text, int i) {
+		int length = text.length();
+		if (i >= length) {
+			return -1;
+		}
+		char c = text.charAt(i++);
+		char value;
+		switch (c) {
+			case 'b':
+				value = '\b';
+				break;
+			case 't':
+				value = '\t';
+				break;
+			case 'n':
+				value = '\n';
+				break;
+			case 'f':
+				value = '\f';
+				break;
+			case 'r':
+				value = '\r';
+				break;
+			case '"':
+			case '\'':
+			case '\\':
+				value = c;
+				break;
+			case 'u':
+				while (i < length && text.charAt(i) == 'u') {
+					i++;
+				}
+				if (i + 4 > length) {
+					return -1;
+				}
+				int unicode = 0;
+				for (int end = i + 4; i < end; i++) {
+					int digit = digit(text.charAt(i), 16);
+					if (digit < 0) {
+						return -1;
+					}
+					unicode = unicode * 16 + digit;
+				}
+				value = (char) unicode;
+				break;
+			default:
+				if (c < '0' || c > '7') {
+					return -1;
+				}
+				// Octal escape of up to three digits, at most \377
+				int octal = c - '0';
+				for (int n = c <= '3' ? 2 : 1; n > 0 && i < length && text.charAt(i) >= '0' && text.charAt(i) <= '7'; n--) {
+					octal = octal * 8 + text.charAt(i++) - '0';
+				}
+				value = (char) octal;
+		}
+		return (long) i << 16 | value;
+	}
+
+	// Whether magnitude * radix + digit still fits in 64 unsigned bits
+	private static boolean fits(long magnitude, int digit, int radix) {
+		long limit = LIMITS[radix];
+		return Long.compareUnsigned(magnitude, limit) < 0 || (magnitude == limit && digit <= LAST_DIGITS[radix]);
+	}
+
+	// ASCII digits only; Character.digit would take other scripts' digits too
+	private static int digit(char c, int radix) {
+		int value;
+		if (c >= '0' && c <= '9') {
+			value = c - '0';
+		} else if (lower(c) >= 'a' && lower(c) <= 'f') {
+			value = lower(c) - 'a' + 10;
+		} else {
+			return -1;
+		}
+		return value < radix ? value : -1;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static char lower(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+}
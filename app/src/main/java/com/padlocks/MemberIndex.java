@@ -0,0 +1,245 @@
+package com.padlocks;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Public methods of a class by name and its constructors, with overloads chosen as in JLS 15.12.2
+class MemberIndex {
+	private static final ClassValue<MemberIndex> INDEXES = new ClassValue<MemberIndex>() {
+		@Override
+		protected MemberIndex computeValue(Class<?> type) {
+			return new MemberIndex(type);
+		}
+	};
+	private static final Map<Class<?>, Class<?>> UNBOXED = new HashMap<>();
+	private static final Map<Class<?>, Class<?>> BOXED = new HashMap<>();
+	// Widening primitive conversions, JLS 5.1.2
+	private static final Map<Class<?>, List<Class<?>>> WIDENINGS = new HashMap<>();
+
+	static {
+		Class<?>[] primitives = { boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class };
+		Class<?>[] wrappers = { Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class };
+		for (int i = 0; i < primitives.length; i++) {
+			UNBOXED.put(wrappers[i], primitives[i]);
+			BOXED.put(primitives[i], wrappers[i]);
+		}
+		WIDENINGS.put(byte.class, Arrays.asList(short.class, int.class, long.class, float.class, double.class));
+		WIDENINGS.put(short.class, Arrays.asList(int.class, long.class, float.class, double.class));
+		WIDENINGS.put(char.class, Arrays.asList(int.class, long.class, float.class, double.class));
+		WIDENINGS.put(int.class, Arrays.asList(long.class, float.class, double.class));
+		WIDENINGS.put(long.class, Arrays.asList(float.class, double.class));
+		WIDENINGS.put(float.class, Arrays.asList(double.class));
+	}
+
+	private final Class<?> type;
+	private final Map<String, List<Method>> methods = new HashMap<>();
+	private final List<Constructor<?>> constructors;
+	// Names of all public members, and of the static ones alone
+	private volatile SymbolIndex memberNames;
+	private volatile SymbolIndex staticMemberNames;
+
+	private MemberIndex(Class<?> type) {
+		this.type = type;
+		for (Method method : type.getMethods()) {
+			methods.computeIfAbsent(method.getName(), name -> new ArrayList<>()).add(method);
+		}
+		constructors = Arrays.asList(type.getDeclaredConstructors());
+	}
+
+	static MemberIndex of(Class<?> type) {
+		return INDEXES.get(type);
+	}
+
+	static void forget(Class<?> type) {
+		INDEXES.remove(type);
+	}
+
+	List<Method> getMethods(String name) {
+		return methods.getOrDefault(name, Collections.emptyList());
+	}
+
+	boolean hasMethod(String name) {
+		return methods.containsKey(name);
+	}
+
+	// Public method and field names, only the static ones for a type named rather than a value
+	SymbolIndex memberNames(boolean statics) {
+		if (memberNames == null) {
+			SymbolIndex all = new SymbolIndex();
+			SymbolIndex onlyStatic = new SymbolIndex();
+			for (List<Method> overloads : methods.values()) {
+				addName(all, onlyStatic, overloads.get(0).getName(), overloads.stream().anyMatch(method -> Modifier.isStatic(method.getModifiers())));
+			}
+			for (Field field : type.getFields()) {
+				addName(all, onlyStatic, field.getName(), Modifier.isStatic(field.getModifiers()));
+			}
+			staticMemberNames = onlyStatic;
+			memberNames = all;
+		}
+		return statics ? staticMemberNames : memberNames;
+	}
+
+	private static void addName(SymbolIndex all, SymbolIndex onlyStatic, String name, boolean isStatic) {
+		all.add(name);
+		if (isStatic) {
+			onlyStatic.add(name);
+		}
+	}
+
+	// Most specific applicable method, or null when none applies or the call is ambiguous
+	Method findMethod(String name, Class<?>[] argumentTypes) {
+		return resolve(getMethods(name), argumentTypes);
+	}
+
+	Constructor<?> findConstructor(Class<?>[] argumentTypes) {
+		return resolve(constructors, argumentTypes);
+	}
+
+	// True when the trailing arguments have to be collected into the varargs array
+	static boolean isVariableArityCall(Executable target, Class<?>[] argumentTypes) {
+		return target.isVarArgs() && !isApplicable(target, argumentTypes, true, false);
+	}
+
+	// The same method as declared by a public supertype, for methods inherited from non-public classes
+	static Method accessible(Method method, Class<?> type) {
+		Deque<Class<?>> pending = new ArrayDeque<>();
+		pending.add(type);
+		while (!pending.isEmpty()) {
+			Class<?> candidate = pending.poll();
+			if (Modifier.isPublic(candidate.getModifiers())) {
+				for (Method declared : candidate.getDeclaredMethods()) {
+					if (declared.getName().equals(method.getName()) && Modifier.isPublic(declared.getModifiers())
+							&& Arrays.equals(declared.getParameterTypes(), method.getParameterTypes())) {
+						return declared;
+					}
+				}
+			}
+			if (candidate.getSuperclass() != null) {
+				pending.add(candidate.getSuperclass());
+			}
+			pending.addAll(Arrays.asList(candidate.getInterfaces()));
+		}
+		return null;
+	}
+
+	static Class<?> unboxed(Class<?> type) {
+		return type.isPrimitive() ? type : UNBOXED.get(type);
+	}
+
+	static Class<?> boxed(Class<?> type) {
+		return type.isPrimitive() ? BOXED.get(type) : type;
+	}
+
+	static boolean isWidening(Class<?> from, Class<?> to) {
+		return WIDENINGS.getOrDefault(from, Collections.emptyList()).contains(to);
+	}
+
+	// Phase 1 without boxing, phase 2 with boxing and unboxing, phase 3 with variable arity (JLS 15.12.2)
+	private static <T extends Executable> T resolve(List<T> candidates, Class<?>[] argumentTypes) {
+		for (int phase = 1; phase <= 3; phase++) {
+			boolean boxing = phase > 1;
+			boolean variableArity = phase == 3;
+			List<T> applicable = new ArrayList<>();
+			for (T candidate : candidates) {
+				if (isApplicable(candidate, argumentTypes, boxing, variableArity)) {
+					applicable.add(candidate);
+				}
+			}
+			if (!applicable.isEmpty()) {
+				return mostSpecific(applicable, argumentTypes.length, variableArity);
+			}
+		}
+		return null;
+	}
+
+	private static boolean isApplicable(Executable candidate, Class<?>[] arguments, boolean boxing, boolean variableArity) {
+		int count = candidate.getParameterCount();
+		if (variableArity ? !candidate.isVarArgs() || arguments.length < count - 1 : arguments.length != count) {
+			return false;
+		}
+		Class<?>[] parameters = parameterTypes(candidate, arguments.length, variableArity);
+		for (int i = 0; i < parameters.length; i++) {
+			if (!isConvertible(arguments[i], parameters[i], boxing)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isConvertible(Class<?> argument, Class<?> parameter, boolean boxing) {
+		if (argument == null) {
+			return !parameter.isPrimitive();
+		} else if (parameter.isPrimitive()) {
+			Class<?> source = argument.isPrimitive() ? argument : boxing ? UNBOXED.get(argument) : null;
+			return source != null && (source == parameter || isWidening(source, parameter));
+		} else if (argument.isPrimitive()) {
+			return boxing && parameter.isAssignableFrom(BOXED.get(argument));
+		}
+		return parameter.isAssignableFrom(argument);
+	}
+
+	// Parameter types as seen by a call with count arguments; variable arity repeats the array's component type
+	private static Class<?>[] parameterTypes(Executable candidate, int count, boolean variableArity) {
+		Class<?>[] declared = candidate.getParameterTypes();
+		if (!variableArity) {
+			return declared;
+		}
+		Class<?>[] expanded = new Class<?>[count];
+		Class<?> component = declared[declared.length - 1].getComponentType();
+		for (int i = 0; i < count; i++) {
+			expanded[i] = i < declared.length - 1 ? declared[i] : component;
+		}
+		return expanded;
+	}
+
+	private static <T extends Executable> T mostSpecific(List<T> candidates, int count, boolean variableArity) {
+		T best = null;
+		for (T candidate : candidates) {
+			Class<?>[] parameters = parameterTypes(candidate, count, variableArity);
+			boolean specific = true;
+			for (T other : candidates) {
+				if (other != candidate && !isMoreSpecific(parameters, parameterTypes(other, count, variableArity))) {
+					specific = false;
+					break;
+				}
+			}
+			if (specific) {
+				if (best != null && !Arrays.equals(best.getParameterTypes(), candidate.getParameterTypes())) {
+					return null;
+				}
+				// Public bridges stand in for methods of non-public superclasses; prefer the real declaration
+				if (best == null || (isBridge(best) && !isBridge(candidate))) {
+					best = candidate;
+				}
+			}
+		}
+		return best;
+	}
+
+	private static boolean isMoreSpecific(Class<?>[] first, Class<?>[] second) {
+		for (int i = 0; i < first.length; i++) {
+			boolean subtype = first[i] == second[i]
+				|| (first[i].isPrimitive() && second[i].isPrimitive() && isWidening(first[i], second[i]))
+				|| (!first[i].isPrimitive() && !second[i].isPrimitive() && second[i].isAssignableFrom(first[i]));
+			if (!subtype) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isBridge(Executable executable) {
+		return executable instanceof Method && ((Method) executable).isBridge();
+	}
+}
@@ -0,0 +1,36 @@
+package com.padlocks;
+
+import java.util.Map;
+
+// Class loader for one compile generation, unloaded with its classes once they are all superseded
+class MemoryClassLoader extends ClassLoader {
+	private final Map<String, byte[]> classBytes;
+	private final Map<String, ClassLoader> dependencies;
+	private int definedClasses;
+
+	MemoryClassLoader(Map<String, byte[]> classBytes, Map<String, ClassLoader> dependencies, ClassLoader parent) {
+		super(parent);
+		this.classBytes = classBytes;
+		this.dependencies = dependencies;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		byte[] bytes = classBytes.get(name);
+		if (bytes != null) {
+			definedClasses++;
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+		// Snippet classes from earlier generations this one was compiled against
+		ClassLoader owner = dependencies.get(name);
+		if (owner != null) {
+			return owner.loadClass(name);
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	int getDefinedClasses() {
+		return definedClasses;
+	}
+}
@@ -0,0 +1,152 @@
+package com.padlocks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+// Keeps snippet sources and their bytecode in memory; the bound session's classes are on the class path,
+// so javac resolves unchanged snippets without recompiling them
+class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+	private final Map<String, List<JavaFileObject>> listings = new HashMap<>();
+	private final Map<String, String> outputs = new HashMap<>();
+	private Map<String, byte[]> classBytes;
+
+	MemoryFileManager(StandardJavaFileManager fileManager) {
+		super(fileManager);
+	}
+
+	// Switches to another session's bytecode; listings of read-only locations are kept
+	void bind(Map<String, byte[]> classBytes) {
+		this.classBytes = classBytes;
+		outputs.clear();
+	}
+
+	// Wrap a piece of source code so it can be handed to javac
+	static JavaFileObject source(String fileName, String code) {
+		return new SourceFile(fileName, code);
+	}
+
+	// File name a source was registered under, e.g. "Eval.java"
+	static String fileName(JavaFileObject file) {
+		if (file instanceof SourceFile) {
+			return ((SourceFile) file).fileName;
+		}
+		return file.getName();
+	}
+
+	// Classes written since the last call, mapped to the file name of the source that produced them
+	Map<String, String> drainOutputs() {
+		Map<String, String> drained = new HashMap<>(outputs);
+		outputs.clear();
+		return drained;
+	}
+
+	@Override
+	public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+		// Output never gets listed back, so only cache lookups on read-only locations
+		if (location.isOutputLocation()) {
+			return super.list(location, packageName, kinds, recurse);
+		}
+
+		String key = location.getName() + "|" + packageName + "|" + kinds + "|" + recurse;
+		List<JavaFileObject> listing = listings.get(key);
+		if (listing == null) {
+			listing = new ArrayList<>();
+			for (JavaFileObject file : super.list(location, packageName, kinds, recurse)) {
+				listing.add(file);
+			}
+			listings.put(key, listing);
+		}
+
+		if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+			return listing;
+		}
+
+		// Add the bytecode of previously compiled snippets in this package
+		List<JavaFileObject> withCompiled = new ArrayList<>(listing);
+		for (String className : classBytes.keySet()) {
+			int lastDot = className.lastIndexOf('.');
+			String classPackage = lastDot == -1 ? "" : className.substring(0, lastDot);
+			if (classPackage.equals(packageName) || (recurse && classPackage.startsWith(packageName + "."))) {
+				withCompiled.add(new ClassFile(className, JavaFileObject.Kind.CLASS));
+			}
+		}
+		return withCompiled;
+	}
+
+	@Override
+	public String inferBinaryName(Location location, JavaFileObject file) {
+		if (file instanceof ClassFile) {
+			return ((ClassFile) file).className;
+		}
+		return super.inferBinaryName(location, file);
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+		if (sibling instanceof SourceFile) {
+			outputs.put(className, ((SourceFile) sibling).fileName);
+		}
+		return new ClassFile(className, kind);
+	}
+
+	private static class SourceFile extends SimpleJavaFileObject {
+		private final String fileName;
+		private final String code;
+
+		SourceFile(String fileName, String code) {
+			super(URI.create("string:///" + fileName), Kind.SOURCE);
+			this.fileName = fileName;
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+
+	private class ClassFile extends SimpleJavaFileObject {
+		private final String className;
+
+		ClassFile(String className, Kind kind) {
+			super(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind);
+			this.className = className;
+		}
+
+		@Override
+		public InputStream openInputStream() throws IOException {
+			byte[] bytes = classBytes.get(className);
+			if (bytes == null) {
+				throw new FileNotFoundException(className);
+			}
+			return new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void close() {
+					classBytes.put(className, toByteArray());
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.padlocks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Buffers System.out and System.err and draws at most repl.outputFps frames a second, eliding what does
+// not fit; writers never block on the terminal
+class OutputPipeline {
+	private static final int CAPACITY = Math.max(1, Integer.getInteger("repl.outputBufferLines", 10_000));
+	private static final long FRAME_MILLIS = 1000 / Math.max(1, Integer.getInteger("repl.outputFps", 30));
+	private static final int LINES_PER_FRAME = Math.max(1, Integer.getInteger("repl.outputLinesPerFrame", 200));
+
+	private final Consumer<String> terminal;
+	private final OutputStream copy;
+	private final Deque<String> lines = new ArrayDeque<>();
+	private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+	private long elided;
+
+	private OutputPipeline(Consumer<String> terminal, OutputStream copy) {
+		this.terminal = terminal;
+		this.copy = copy;
+	}
+
+	// Redirects System.out and System.err; terminal receives a frame of lines at a time
+	static OutputPipeline install(Consumer<String> terminal) throws IOException {
+		String file = System.getProperty("repl.outputFile");
+		OutputStream copy = file == null ? null : new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		OutputPipeline pipeline = new OutputPipeline(terminal, copy);
+
+		PrintStream stream = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				pipeline.accept(bytes, offset, length);
+			}
+		}, false, StandardCharsets.UTF_8.name());
+		System.setOut(stream);
+		System.setErr(stream);
+
+		Thread renderer = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(FRAME_MILLIS);
+					pipeline.render(false);
+				}
+			} catch (InterruptedException e) {
+				// Exit with the REPL
+			}
+		}, "repl-output");
+		renderer.setDaemon(true);
+		renderer.start();
+		return pipeline;
+	}
+
+	// Renders whatever is left, including an unterminated last line; call before showing the prompt
+	void flush() {
+		System.out.flush();
+		render(true);
+		if (copy != null) {
+			synchronized (this) {
+				try {
+					copy.flush();
+				} catch (IOException e) {
+					// Keep rendering even if the copy fails
+				}
+			}
+		}
+	}
+
+	private synchronized void accept(byte[] bytes, int offset, int length) {
+		if (copy != null) {
+			try {
+				copy.write(bytes, offset, length);
+			} catch (IOException e) {
+				// Keep rendering even if the copy fails
+			}
+		}
+		int start = offset;
+		for (int i = offset; i < offset + length; i++) {
+			if (bytes[i] == '\n') {
+				partial.write(bytes, start, i - start);
+				addLine(new String(partial.toByteArray(), StandardCharsets.UTF_8));
+				partial.reset();
+				start = i + 1;
+			}
+		}
+		partial.write(bytes, start, offset + length - start);
+	}
+
+	private void addLine(String line) {
+		// Keep the newest lines when the buffer is full
+		if (lines.size() >= CAPACITY) {
+			lines.poll();
+			elided++;
+		}
+		lines.add(line);
+	}
+
+	private void render(boolean all) {
+		List<String> frame = new ArrayList<>();
+		synchronized (this) {
+			if (all && partial.size() > 0) {
+				addLine(new String(partial.toByteArray(), StandardCharsets.UTF_8));
+				partial.reset();
+			}
+			// A frame shows the latest lines; older ones that did not fit are counted instead
+			while (lines.size() > LINES_PER_FRAME) {
+				lines.poll();
+				elided++;
+			}
+			if (elided > 0) {
+				frame.add("... " + elided + (elided == 1 ? " line" : " lines") + " elided");
+				elided = 0;
+			}
+			frame.addAll(lines);
+			lines.clear();
+		}
+		if (!frame.isEmpty()) {
+			terminal.accept(String.join("\n", frame));
+		}
+	}
+}
@@ -1,28 +1,89 @@
 package com.padlocks;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 public class Parser {
+	private static final Set<String> CLASS_MODIFIERS = new HashSet<>(Arrays.asList(
+		"public", "private", "protected", "abstract", "final"
+	));
+	private static final Set<String> ACCESS_MODIFIERS = new HashSet<>(Arrays.asList(
+		"public", "private", "protected"
+	));
+	private static final List<String> CONTROL_KEYWORDS = Arrays.asList(
+		"for", "while", "if", "do", "try", "switch", "synchronized"
+	);
+	private static final Set<String> RESERVED_WORDS = new HashSet<>(Arrays.asList(
+		"abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+		"default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+		"implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+		"protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+		"throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null"
+	));
+	private static final int CLASS_NAME_CACHE = 512;
+	private static final Set<String> PRIMITIVE_TYPES = new HashSet<>(Arrays.asList(
+		"boolean", "byte", "char", "short", "int", "long", "float", "double"
+	));
+
+	// Classes resolved for arguments by name, bounded as every string argument is a key
+	private final Map<String, Optional<Class<?>>> classNames = new LinkedHashMap<String, Optional<Class<?>>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Optional<Class<?>>> eldest) {
+			return size() > CLASS_NAME_CACHE;
+		}
+	};
+
+	// Most recent submission and its tokens; every classifier below looks at the same input in turn
+	private volatile Lexed lastLexed;
+
+	private static class Lexed {
+		private final String source;
+		private final JavaLexer tokens;
+
+		Lexed(String source, JavaLexer tokens) {
+			this.source = source;
+			this.tokens = tokens;
+		}
+	}
+
+	// Tokens of the input, lexed once however many times it is classified
+	JavaLexer tokens(String input) {
+		Lexed lexed = lastLexed;
+		if (lexed == null || !lexed.source.equals(input)) {
+			lexed = new Lexed(input, JavaLexer.lex(input));
+			lastLexed = lexed;
+		}
+		return lexed.tokens;
+	}
+
 	public boolean isImport(String input) {
-		return input.startsWith("import ");
+		JavaLexer tokens = tokens(input);
+		int first = tokens.skipComments(0);
+		return first < tokens.size() && tokens.is(first, "import");
 	}
 
 	public boolean isClass(String input) {
-		return input.startsWith("class ") ||
-			   input.startsWith("public class ") ||
-			   input.startsWith("private class ") ||
-			   input.startsWith("protected class ");
+		JavaLexer tokens = tokens(input);
+		int i = tokens.skipComments(0);
+		while (i < tokens.size() && CLASS_MODIFIERS.contains(tokens.text(i))) {
+			i = tokens.skipComments(i + 1);
+		}
+		return i < tokens.size() && tokens.is(i, "class");
 	}
 
 	public boolean isMethod(String input) {
 		// Assume a method starts with access modifier and contains '(' and ')'
-		return (input.startsWith("public ") ||
-				input.startsWith("private ") ||
-				input.startsWith("protected ")) &&
-			   input.contains("(") && input.contains(")");
+		JavaLexer tokens = tokens(input);
+		int first = tokens.skipComments(0);
+		return first < tokens.size() && ACCESS_MODIFIERS.contains(tokens.text(first))
+			&& indexOf(tokens, '(') != -1 && indexOf(tokens, ')') != -1;
 	}
 
 	public boolean isExpression(String input) {
@@ -35,65 +96,56 @@ public class Parser {
 
 	// Determine if the accumulated input forms a complete block
 	public boolean isComplete(List<String> inputBuffer) {
-		StringBuilder sb = new StringBuilder();
+		JavaLexer tokens = new JavaLexer();
 		for (String line : inputBuffer) {
-			sb.append(line).append("\n");
+			tokens.append(line).append("\n");
 		}
-		String input = sb.toString();
 
-		int openBraces = 0;
-		for (char c : input.toCharArray()) {
-			if (c == '{') openBraces++;
-			if (c == '}') openBraces--;
-		}
-
-		// If braces are balanced, consider it complete
-		return openBraces == 0;
+		// If braces are balanced outside literals and comments, consider it complete
+		return tokens.braceDepth() == 0 && !tokens.isOpen();
 	}
 
 	// Helper method to parse arguments dynamically
 	public Object parseArgument(String arg) {
-		if ("null".equals(arg)) {
-			return null;
+		// Literals: numbers, booleans, characters, strings and null
+		Object literal = LiteralScanner.scan(arg);
+		if (literal != LiteralScanner.NONE) {
+			return literal;
 		}
-		// Parse basic types like Integer, Double, Boolean, etc.
-		// Integer
-		else if (arg.matches("-?\\d+")) {
-			return Integer.valueOf(arg);
-		// Double
-		} else if (arg.matches("-?\\d+\\.\\d+")) {
-			return Double.valueOf(arg);
-		// Boolean
-		} else if (arg.equalsIgnoreCase("true") || arg.equalsIgnoreCase("false")) {
-			return Boolean.valueOf(arg);
-		// Long
-		} else if (arg.matches("-?\\d+L")) {
-			return Long.valueOf(arg.substring(0, arg.length() - 1));
-		// Float
-		} else if (arg.matches("-?\\d+\\.\\d+F")) {
-			return Float.valueOf(arg.substring(0, arg.length() - 1));
-		// Short
-		} else if (arg.matches("-?\\d+S")) {
-			return Short.valueOf(arg.substring(0, arg.length() - 1));
-		// Byte
-		} else if (arg.matches("-?\\d+B")) {
-			return Byte.valueOf(arg.substring(0, arg.length() - 1));
-		// Character
-		} else if (arg.startsWith("'") && arg.endsWith("'")) {
-			return arg.charAt(1);
-		// Handle strings, stripped of quotes
-		} else if (arg.startsWith("\"") && arg.endsWith("\"")) {
-			return arg.substring(1, arg.length() - 1);
-		} else {
-			// Try to resolve the argument as a class name (enum, or another type)
+		// Try to resolve the argument as a class name (enum, or another type)
+		Class<?> clazz = isQualifiedName(arg) ? classForName(arg) : null;
+		// If not found, assume it is a string argument
+		return clazz != null ? clazz : arg;
+	}
+
+	// Class.forName with its answers kept, misses included, as each miss costs an exception
+	private synchronized Class<?> classForName(String name) {
+		Optional<Class<?>> cached = classNames.get(name);
+		if (cached == null) {
 			try {
-				Class<?> clazz = Class.forName(arg);
-				return clazz;
-			} catch (ClassNotFoundException e) {
-				// If not found, assume it is a string argument
-				return arg;
+				cached = Optional.of(Class.forName(name));
+			} catch (ClassNotFoundException | LinkageError e) {
+				cached = Optional.empty();
+			}
+			classNames.put(name, cached);
+		}
+		return cached.orElse(null);
+	}
+
+	// Dotted identifiers, the only text Class.forName could resolve
+	private static boolean isQualifiedName(String text) {
+		boolean start = true;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '.' && !start) {
+				start = true;
+			} else if (start ? Character.isJavaIdentifierStart(c) : Character.isJavaIdentifierPart(c)) {
+				start = false;
+			} else {
+				return false;
 			}
 		}
+		return !start;
 	}
 
 	// Helper method to convert wrapper types to their primitive types
@@ -179,43 +231,33 @@ public class Parser {
 	}
 
 	public boolean isStaticVariable(String input) {
-		return input.contains("static") && input.contains("=");
+		JavaLexer tokens = tokens(input);
+		return indexOf(tokens, "static") != -1 && indexOf(tokens, "=") != -1;
 	}
 
 	public StringBuilder organizeCode(StringBuilder code) {
 		// Build functional code from chained statements, classes, and methods
 		StringBuilder organizedCode = new StringBuilder();
-
-		// Split by newline
-		String[] lines = code.toString().split("\n");
+		String source = code.toString();
+		JavaLexer tokens = tokens(source);
 
 		// Separate imports, classes, and other code
 		StringBuilder imports = new StringBuilder();
 		StringBuilder classes = new StringBuilder();
 
-		Set<String> processedLines = new HashSet<>();
-		for (int i = 0; i < lines.length; i++) {
-			// Trim to avoid space-related issues
-			String line = lines[i].trim();
-			if (processedLines.contains(line)) {
-				continue;
-			}
-			processedLines.add(line);
-			if (isImport(line)) {
-				imports.append(line).append("\n");
-			} else if (isClass(line)) {
-				// classes.append(line).append("\n");
-				StringBuilder codeBlock = new StringBuilder(line);
-
-				int openBraces = 1;
-				while (openBraces > 0) {
-					String nextLine = lines[++i].trim();
-					codeBlock.append("\n").append(nextLine);
-					openBraces += countOccurrences(nextLine, '{');
-					openBraces -= countOccurrences(nextLine, '}');
+		Set<String> processed = new HashSet<>();
+		int i = tokens.skipComments(0);
+		while (i < tokens.size()) {
+			int end = endOfDeclaration(tokens, i);
+			String declaration = source.substring(tokens.start(i), tokens.end(end - 1));
+			if (processed.add(declaration)) {
+				if (tokens.is(i, "import")) {
+					imports.append(declaration).append("\n");
+				} else if (isClass(declaration)) {
+					classes.append(declaration).append("\n");
 				}
-				classes.append(codeBlock.toString());
 			}
+			i = tokens.skipComments(end);
 		}
 
 		// Append imports first
@@ -229,64 +271,242 @@ public class Parser {
 
 	public String extractMainMethodBody(String code) {
 		// Extract the body of the main method
-		String body = "";
 		String mainMethod = code.substring(code.indexOf("public static void main"), code.length());
-		int openBraces = 0;
-		int startIndex = 0;
-		for (int i = 0; i < mainMethod.length(); i++) {
-			if (mainMethod.charAt(i) == '{') {
-				openBraces++;
-				if (openBraces == 1) {
-					// Start after the opening brace
-					startIndex = i + 1;
-				}
+		JavaLexer tokens = JavaLexer.lex(mainMethod);
+		int open = indexOf(tokens, '{');
+		if (open == -1) {
+			return "";
+		}
+		int close = matchingBrace(tokens, open);
+		// Between the braces, without them
+		return close == -1 ? "" : mainMethod.substring(tokens.end(open), tokens.start(close)).trim();
+	}
+
+	public String[] separateClasses(String code) {
+		// Split after every brace that closes a top-level block, keeping comments with the class they precede
+		JavaLexer tokens = tokens(code);
+		List<String> classes = new ArrayList<>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.is(i, '{')) {
+				depth++;
+			} else if (tokens.is(i, '}') && --depth == 0) {
+				classes.add(code.substring(start, tokens.end(i)).trim() + "\n");
+				start = tokens.end(i);
 			}
-			if (mainMethod.charAt(i) == '}') {
-				openBraces--;
-				if (openBraces == 0) {
-					// End before the closing brace
-					body = mainMethod.substring(startIndex, i).trim();
-					break;
-				}
+		}
+		if (!code.substring(start).trim().isEmpty()) {
+			classes.add(code.substring(start).trim() + "\n");
+		}
+		return classes.toArray(new String[0]);
+	}
+
+	// Index just past a top-level declaration starting at token i: an import up to its semicolon, or anything
+	// else up to the brace that closes its body
+	private static int endOfDeclaration(JavaLexer tokens, int i) {
+		int depth = 0;
+		for (; i < tokens.size(); i++) {
+			if (tokens.is(i, '{')) {
+				depth++;
+			} else if (tokens.is(i, '}') && --depth <= 0) {
+				return i + 1;
+			} else if (tokens.is(i, ';') && depth == 0) {
+				return i + 1;
+			}
+		}
+		return tokens.size();
+	}
+
+	// Index of the brace closing the one at open, or -1 if it is never closed
+	private static int matchingBrace(JavaLexer tokens, int open) {
+		int depth = 0;
+		for (int i = open; i < tokens.size(); i++) {
+			if (tokens.is(i, '{')) {
+				depth++;
+			} else if (tokens.is(i, '}') && --depth == 0) {
+				return i;
 			}
 		}
+		return -1;
+	}
 
-		return body;
+	private static int indexOf(JavaLexer tokens, char c) {
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.is(i, c)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
-	private static int countOccurrences(String str, char ch) {
-		int count = 0;
-		for (char c : str.toCharArray()) {
-			if (c == ch) {
-				count++;
+	private static int indexOf(JavaLexer tokens, String text) {
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.is(i, text)) {
+				return i;
 			}
 		}
-		return count;
+		return -1;
 	}
 
-	public String[] separateClasses(String code) {
-		// Loop through each line and preserve code blocks. When braces are balanced, separate the classes
-		String[] lines = code.split("\n");
-		StringBuilder[] classes = new StringBuilder[lines.length];
-		int classIndex = 0;
-		int openBraces = 0;
-
-		for (String line : lines) {
-			if (line.contains("{")) openBraces++;
-			if (line.contains("}")) openBraces--;
-			if (classes[classIndex] == null) {
-				classes[classIndex] = new StringBuilder();
+	// Whether the input is a control-flow statement, a block, or several statements to run together
+	public boolean isStatementBlock(String input) {
+		JavaLexer tokens = tokens(input);
+		int first = tokens.skipComments(0);
+		if (first < tokens.size() && (tokens.is(first, '{')
+				|| (tokens.kind(first) == JavaLexer.Kind.IDENTIFIER && CONTROL_KEYWORDS.contains(tokens.text(first))))) {
+			return true;
+		}
+		return topLevelStatements(input).size() > 1;
+	}
+
+	// Splits code into its top-level statements, skipping literals, comments and nested blocks
+	public List<String> topLevelStatements(String code) {
+		JavaLexer tokens = tokens(code);
+		List<String> statements = new ArrayList<>();
+		for (int[] range : statementRanges(tokens)) {
+			statements.add(code.substring(tokens.start(range[0]), tokens.end(range[1] - 1)));
+		}
+		return statements;
+	}
+
+	// Top-level local variable declarations with an initializer, mapped from name to declaring statement
+	public Map<String, String> declaredLocals(String code) {
+		JavaLexer tokens = tokens(code);
+		Map<String, String> locals = new LinkedHashMap<>();
+		for (int[] range : statementRanges(tokens)) {
+			int[] declaration = matchDeclaration(tokens, range[0], range[1]);
+			if (declaration != null) {
+				locals.put(tokens.text(declaration[2]), code.substring(tokens.start(range[0]), tokens.end(range[1] - 1)) + ";");
 			}
-			classes[classIndex].append(line).append("\n");
-			if (openBraces == 0) {
-				classIndex++;
+		}
+		return locals;
+	}
+
+	// Declared type of a local variable declaration, or null if the statement is not one
+	public String declaredType(String statement) {
+		// Not the cached submission; a statement is a few tokens
+		JavaLexer tokens = JavaLexer.lex(statement);
+		int end = tokens.size();
+		while (end > 0 && (tokens.is(end - 1, ';') || tokens.isComment(end - 1))) {
+			end--;
+		}
+		int[] declaration = matchDeclaration(tokens, 0, end);
+		return declaration == null ? null
+			: statement.substring(tokens.start(declaration[0]), tokens.end(declaration[1] - 1)).replaceAll("\\s+", " ");
+	}
+
+	// Token index pairs, start inclusive and end exclusive, of the top-level statements; a statement's
+	// terminating semicolon is left out, a block's closing brace is kept
+	private static List<int[]> statementRanges(JavaLexer tokens) {
+		List<int[]> ranges = new ArrayList<>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.kind(i) != JavaLexer.Kind.SEPARATOR) {
+				continue;
 			}
+			if (tokens.is(i, '(') || tokens.is(i, '[') || tokens.is(i, '{')) {
+				depth++;
+			} else if (tokens.is(i, ')') || tokens.is(i, ']')) {
+				depth--;
+			} else if (tokens.is(i, '}')) {
+				depth--;
+				// A closing brace at the top level ends a block statement
+				if (depth == 0) {
+					addRange(ranges, start, i + 1);
+					start = i + 1;
+				}
+			} else if (tokens.is(i, ';') && depth == 0) {
+				addRange(ranges, start, i);
+				start = i + 1;
+			}
+		}
+		addRange(ranges, start, tokens.size());
+		return ranges;
+	}
+
+	private static void addRange(List<int[]> ranges, int start, int end) {
+		if (end > start) {
+			ranges.add(new int[] { start, end });
 		}
+	}
 
-		return Arrays.stream(classes)
-			.filter(sb -> sb != null)
-			.map(StringBuilder::toString)
-			.toArray(String[]::new);
+	// Matches [final] Type name = initializer within tokens [from, to); returns the token range of the type
+	// and the index of the name, or null
+	private static int[] matchDeclaration(JavaLexer tokens, int from, int to) {
+		int i = next(tokens, from, to);
+		if (i < to && tokens.is(i, "final")) {
+			i = next(tokens, i + 1, to);
+		}
+		int typeStart = i;
+		if (!isIdentifier(tokens, i, to)) {
+			return null;
+		}
+		String type = tokens.text(i);
+		i = next(tokens, i + 1, to);
+		// Qualified name
+		while (i < to && tokens.is(i, '.') && isIdentifier(tokens, next(tokens, i + 1, to), to)) {
+			i = next(tokens, next(tokens, i + 1, to) + 1, to);
+		}
+		// Type arguments, up to the bracket that closes them
+		if (i < to && tokens.is(i, "<")) {
+			int angles = 0;
+			do {
+				String token = tokens.text(i);
+				if (token.equals("<")) {
+					angles++;
+				} else if (token.equals(">") || token.equals(">>") || token.equals(">>>")) {
+					angles -= token.length();
+				} else if (!isIdentifier(tokens, i, to) && !token.equals("?") && !token.equals("&")
+						&& !token.equals(".") && !token.equals(",") && !token.equals("[") && !token.equals("]")) {
+					return null;
+				}
+				i = next(tokens, i + 1, to);
+			} while (angles > 0 && i < to);
+		}
+		// Array dimensions
+		while (i < to && tokens.is(i, '[') && next(tokens, i + 1, to) < to && tokens.is(next(tokens, i + 1, to), ']')) {
+			i = next(tokens, next(tokens, i + 1, to) + 1, to);
+		}
+		int typeEnd = tokens.previous(i) + 1;
+		int name = i;
+		if (!isIdentifier(tokens, name, to)) {
+			return null;
+		}
+		i = next(tokens, name + 1, to);
+		if (i >= to || !tokens.is(i, "=")) {
+			return null;
+		}
+		if ((PRIMITIVE_TYPES.contains(type) || !RESERVED_WORDS.contains(type)) && !RESERVED_WORDS.contains(tokens.text(name))) {
+			return new int[] { typeStart, typeEnd, name };
+		}
+		return null;
+	}
+
+	// First token at or after i that is not a comment, or to
+	private static int next(JavaLexer tokens, int i, int to) {
+		return Math.min(tokens.skipComments(i), to);
+	}
+
+	private static boolean isIdentifier(JavaLexer tokens, int i, int to) {
+		return i < to && tokens.kind(i) == JavaLexer.Kind.IDENTIFIER;
+	}
+
+	// Identifiers used in a piece of code, ignoring literals, comments and member names after a dot
+	public Set<String> referencedIdentifiers(String code) {
+		JavaLexer tokens = tokens(code);
+		Set<String> identifiers = new LinkedHashSet<>();
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.kind(i) != JavaLexer.Kind.IDENTIFIER) {
+				continue;
+			}
+			int previous = tokens.previous(i);
+			if (previous == -1 || !tokens.is(previous, '.')) {
+				identifiers.add(tokens.text(i));
+			}
+		}
+		return identifiers;
 	}
 
 	public String makeStatic(String input) {
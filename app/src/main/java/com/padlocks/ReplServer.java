@@ -0,0 +1,367 @@
+package com.padlocks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Sessions driven by line-delimited JSON over stdio (--server) or a loopback socket (--server=port),
+// e.g. {"id": 1, "session": "a", "input": "int x = 2;"}; "op" can also be "cancel" or "close"
+class ReplServer {
+	// Output of the request running on this thread, inherited by its evaluation worker
+	private static final InheritableThreadLocal<ByteArrayOutputStream> CAPTURE = new InheritableThreadLocal<>();
+
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private final ExecutorService requests = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "repl-request");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static class Session {
+		private final Evaluator evaluator = new Evaluator();
+		private final EvaluationRunner runner = new EvaluationRunner(evaluator);
+		private CompletableFuture<Void> queue = CompletableFuture.completedFuture(null);
+	}
+
+	static void start(String option) throws Exception {
+		// Responses own stdout in stdio mode; output printed outside a request goes to stderr there
+		OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+		boolean stdio = !option.contains("=");
+		captureOutput(stdio ? System.err : System.out);
+
+		ReplServer server = new ReplServer();
+		// Warm the shared compiler pool before the first session needs it
+		new Evaluator().startWarmUp();
+		if (stdio) {
+			server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+				new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8)));
+		} else {
+			int port = Integer.parseInt(option.substring(option.indexOf('=') + 1));
+			try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+				System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+				while (true) {
+					Socket socket = serverSocket.accept();
+					Thread connection = new Thread(() -> {
+						try (Socket client = socket) {
+							server.serve(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)),
+								new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)));
+						} catch (Exception e) {
+							System.err.println("Connection closed: " + e);
+						}
+					}, "repl-connection");
+					connection.setDaemon(true);
+					connection.start();
+				}
+			}
+		}
+	}
+
+	// Sends what a request prints to its response, through a System.out that writes to the running request's
+	// buffer; output printed outside a request goes to the given stream
+	static void captureOutput(PrintStream uncaptured) throws UnsupportedEncodingException {
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				ByteArrayOutputStream buffer = CAPTURE.get();
+				if (buffer != null) {
+					buffer.write(b);
+				} else {
+					uncaptured.write(b);
+				}
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) {
+				ByteArrayOutputStream buffer = CAPTURE.get();
+				if (buffer != null) {
+					buffer.write(bytes, offset, length);
+				} else {
+					uncaptured.write(bytes, offset, length);
+				}
+			}
+		}, true, StandardCharsets.UTF_8.name()));
+	}
+
+	// Reads requests until the peer closes its side, then waits for the replies still owed to it
+	void serve(BufferedReader in, Writer out) throws Exception {
+		Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				CompletableFuture<Void> reply = handle(line, out);
+				pending.add(reply);
+				reply.whenComplete((result, failure) -> pending.remove(reply));
+			}
+		}
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	private CompletableFuture<Void> handle(String line, Writer out) {
+		Map<String, Object> request;
+		try {
+			request = parseObject(line);
+		} catch (IllegalArgumentException e) {
+			return send(out, response(null, null, "error", e.getMessage()));
+		}
+		Object id = request.get("id");
+		String name = String.valueOf(request.getOrDefault("session", "default"));
+		String op = String.valueOf(request.getOrDefault("op", "eval"));
+		Session session = op.equals("eval") ? sessions.computeIfAbsent(name, key -> new Session()) : sessions.get(name);
+		if (session == null) {
+			return send(out, response(id, name, "error", "No session named " + name));
+		}
+
+		switch (op) {
+			case "eval": {
+				Object input = request.get("input");
+				if (!(input instanceof String)) {
+					return send(out, response(id, name, "error", "Missing \"input\""));
+				}
+				return enqueue(session, () -> send(out, response(id, name, "output", evaluate(session, (String) input))));
+			}
+			case "cancel":
+				session.runner.cancel();
+				return send(out, response(id, name, "cancelled", true));
+			case "close":
+				sessions.remove(name, session);
+				return enqueue(session, () -> {
+					try {
+						session.evaluator.shutdown();
+					} catch (Exception e) {
+						System.err.println("Could not discard session " + name + ": " + e);
+					}
+					send(out, response(id, name, "closed", true));
+				});
+			default:
+				return send(out, response(id, name, "error", "Unknown op " + op));
+		}
+	}
+
+	// Appends to the session's queue so its requests run one at a time, in the order they arrived
+	private CompletableFuture<Void> enqueue(Session session, Runnable request) {
+		synchronized (session) {
+			// A request that failed must not stop the ones queued behind it
+			session.queue = session.queue.exceptionally(failure -> null).thenRunAsync(request, requests);
+			return session.queue;
+		}
+	}
+
+	private static String evaluate(Session session, String input) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CAPTURE.set(buffer);
+		try {
+			session.runner.evaluate(input);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException | Error e) {
+			System.out.println("\n\nError: " + e);
+		} finally {
+			CAPTURE.remove();
+		}
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static CompletableFuture<Void> send(Writer out, String response) {
+		synchronized (out) {
+			try {
+				out.write(response);
+				out.write('\n');
+				out.flush();
+			} catch (IOException e) {
+				System.err.println("Could not send response: " + e);
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	private static String response(Object id, String session, String key, Object value) {
+		Map<String, Object> fields = new LinkedHashMap<>();
+		if (id != null) {
+			fields.put("id", id);
+		}
+		if (session != null) {
+			fields.put("session", session);
+		}
+		fields.put(key, value);
+
+		StringBuilder json = new StringBuilder("{");
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			if (json.length() > 1) {
+				json.append(", ");
+			}
+			json.append(quote(field.getKey())).append(": ");
+			Object fieldValue = field.getValue();
+			json.append(fieldValue instanceof String ? quote((String) fieldValue) : String.valueOf(fieldValue));
+		}
+		return json.append('}').toString();
+	}
+
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : text.toCharArray()) {
+			switch (c) {
+				case '"':
+					quoted.append("\\\"");
+					break;
+				case '\\':
+					quoted.append("\\\\");
+					break;
+				case '\n':
+					quoted.append("\\n");
+					break;
+				case '\r':
+					quoted.append("\\r");
+					break;
+				case '\t':
+					quoted.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						quoted.append(String.format("\\u%04x", (int) c));
+					} else {
+						quoted.append(c);
+					}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	// Requests are flat objects whose values are strings, numbers, booleans or null
+	static Map<String, Object> parseObject(String json) {
+		Map<String, Object> object = new LinkedHashMap<>();
+		int[] position = { skipSpace(json, 0) };
+		expect(json, position, '{');
+		if (peek(json, position) == '}') {
+			position[0]++;
+		} else {
+			while (true) {
+				String key = parseString(json, position);
+				expect(json, position, ':');
+				object.put(key, parseValue(json, position));
+				if (peek(json, position) == ',') {
+					position[0]++;
+					continue;
+				}
+				expect(json, position, '}');
+				break;
+			}
+		}
+		if (skipSpace(json, position[0]) != json.length()) {
+			throw new IllegalArgumentException("Unexpected text after the request object");
+		}
+		return object;
+	}
+
+	private static Object parseValue(String json, int[] position) {
+		char c = peek(json, position);
+		if (c == '"') {
+			return parseString(json, position);
+		}
+		int start = position[0];
+		while (position[0] < json.length() && ",} \t\r\n".indexOf(json.charAt(position[0])) == -1) {
+			position[0]++;
+		}
+		String token = json.substring(start, position[0]);
+		switch (token) {
+			case "true":
+				return Boolean.TRUE;
+			case "false":
+				return Boolean.FALSE;
+			case "null":
+				return null;
+			default:
+				try {
+					return new BigDecimal(token);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Unsupported JSON value at " + start + ": " + token);
+				}
+		}
+	}
+
+	private static String parseString(String json, int[] position) {
+		expect(json, position, '"');
+		StringBuilder text = new StringBuilder();
+		while (position[0] < json.length()) {
+			char c = json.charAt(position[0]++);
+			if (c == '"') {
+				return text.toString();
+			}
+			if (c != '\\') {
+				text.append(c);
+				continue;
+			}
+			if (position[0] >= json.length()) {
+				break;
+			}
+			char escaped = json.charAt(position[0]++);
+			switch (escaped) {
+				case 'n':
+					text.append('\n');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'b':
+					text.append('\b');
+					break;
+				case 'f':
+					text.append('\f');
+					break;
+				case 'u':
+					if (position[0] + 4 > json.length()) {
+						throw new IllegalArgumentException("Truncated \\u escape");
+					}
+					text.append((char) Integer.parseInt(json.substring(position[0], position[0] + 4), 16));
+					position[0] += 4;
+					break;
+				default:
+					text.append(escaped);
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string");
+	}
+
+	private static void expect(String json, int[] position, char expected) {
+		if (peek(json, position) != expected) {
+			throw new IllegalArgumentException("Expected '" + expected + "' at " + position[0]);
+		}
+		position[0]++;
+	}
+
+	// Skips whitespace and returns the next character, or 0 at the end
+	private static char peek(String json, int[] position) {
+		position[0] = skipSpace(json, position[0]);
+		return position[0] < json.length() ? json.charAt(position[0]) : 0;
+	}
+
+	private static int skipSpace(String json, int position) {
+		while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+			position++;
+		}
+		return position;
+	}
+}
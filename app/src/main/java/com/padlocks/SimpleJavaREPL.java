@@ -1,86 +1,108 @@
 package com.padlocks;
 
-import java.io.File;
+import java.util.concurrent.Future;
 
 import org.jline.reader.Completer;
 import org.jline.reader.Highlighter;
 import org.jline.reader.LineReader;
 import org.jline.reader.LineReaderBuilder;
-import org.jline.reader.impl.completer.StringsCompleter;
+import org.jline.reader.UserInterruptException;
 import org.jline.terminal.Terminal;
 import org.jline.terminal.TerminalBuilder;
 
 public class SimpleJavaREPL {
 
   public static void main(String[] args) throws Exception {
+    // The shared compiler pool's file managers are closed however the REPL, batch run or server ends
+    Runtime.getRuntime().addShutdownHook(new Thread(CompilerPool::closeShared, "repl-compiler-pool-close"));
+
+    // --server runs headless sessions over stdio, --server=<port> over a local socket;
+    // --batch runs the snippets on stdin, --batch=<file> those of a file
+    for (String arg : args) {
+      if (arg.startsWith("--server")) {
+        ReplServer.start(arg);
+        return;
+      } else if (arg.startsWith("--batch")) {
+        BatchRunner.start(arg);
+        return;
+      }
+    }
+
+    Evaluator evaluator = new Evaluator();
+    // Get javac warm while the terminal initializes and the user types
+    Future<?> warmUp = evaluator.startWarmUp();
+
     Terminal terminal = TerminalBuilder.builder().system(true).build();
-    Completer completer = new StringsCompleter(Keywords.get());
+    Completer completer = new JavaCompleter(evaluator.getState());
     Highlighter highlighter = new JavaSyntaxHighlighter();
     LineReader reader = LineReaderBuilder.builder()
         .terminal(terminal)
         .completer(completer)
         .highlighter(highlighter)
         .build();
+    // Evaluations run on a worker thread; Ctrl-C while one runs cancels it instead of killing the JVM
+    EvaluationRunner runner = new EvaluationRunner(evaluator);
+    terminal.handle(Terminal.Signal.INT, signal -> runner.cancel());
+    // Printing goes to a buffer that is drawn above the prompt a frame at a time
+    OutputPipeline output = OutputPipeline.install(reader::printAbove);
     String input;
 
     System.out.println("Welcome to the Simple Java REPL. Type 'exit' to quit. Use tab while typing for autocomplete.");
+    output.flush();
 
     // Execution Loop
     while (true) {
-      // Prompt the user for input
-      input = reader.readLine(">> ").trim();
+      // Prompt the user for input; Ctrl-C at the prompt discards the line
+      try {
+        input = reader.readLine(">> ").trim();
+      } catch (UserInterruptException e) {
+        continue;
+      }
 
       // Check if the user wants to exit the REPL
       if (input.equalsIgnoreCase("exit")) {
         System.out.println("Exiting REPL...");
+        output.flush();
 
-        // Delete ./tmp directory
-        File dir = new File("./tmp/");
-        if (dir.exists()) {
-          File[] files = dir.listFiles();
-          if (files != null) {
-            for (File file : files) {
-              file.delete();
-            }
-          }
-          dir.delete();
-        }
+        // Discard compiled snippets
+        warmUp.cancel(true);
+        evaluator.shutdown();
         // Exit the REPL
         break;
       }
 
-      // Check if the input is a block of code
-      if (input.endsWith("{")) {
+      // Check if the input is a block of code: keep reading while braces are open or a comment or text block is
+      JavaLexer tokens = JavaLexer.lex(input);
+      if (tokens.isIncomplete()) {
         StringBuilder codeBlock = new StringBuilder(input);
-        int openBraces = 1;
-        while (openBraces > 0) {
-          String prompt = "... ".repeat(openBraces);
-          input = reader.readLine(prompt).trim();
+        while (tokens.isIncomplete()) {
+          String prompt = "... ".repeat(Math.max(tokens.braceDepth(), 1));
+          try {
+            input = reader.readLine(prompt).trim();
+          } catch (UserInterruptException e) {
+            // Ctrl-C abandons the whole block
+            codeBlock = null;
+            break;
+          }
           codeBlock.append("\n").append(input);
-          openBraces += countOccurrences(input, '{');
-          openBraces -= countOccurrences(input, '}');
+          tokens.append("\n").append(input);
+        }
+        if (codeBlock == null) {
+          continue;
         }
         input = codeBlock.toString();
       }
 
       try {
         // Evaluate the input expression, statement or code block
-        Evaluator.evaluateInput(input);
+        runner.evaluate(input);
       } catch (Exception e) {
         // System.err.println("Error: " + e.getMessage());
         // e.printStackTrace();
+      } finally {
+        // Show the rest of the output before the next prompt
+        output.flush();
       }
     }
   }
-
-  // Count occurrences of a character in a string
-  private static int countOccurrences(String str, char ch) {
-    int count = 0;
-    for (char c : str.toCharArray()) {
-      if (c == ch) {
-        count++;
-      }
-    }
-    return count;
-  }
 }
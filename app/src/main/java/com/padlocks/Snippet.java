@@ -0,0 +1,92 @@
+package com.padlocks;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionStatementTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.SourcePositions;
+
+// A submission as SnippetClassifier read it, with its top-level trees if it parsed
+class Snippet {
+	enum Kind {
+		IMPORT, CLASS, METHOD, DECLARATION, STATEMENT, EXPRESSION
+	}
+
+	private final String input;
+	private final Kind kind;
+	private final boolean staticField;
+	private final boolean block;
+	private final List<? extends Tree> trees;
+	private final CompilationUnitTree unit;
+	private final SourcePositions positions;
+	// Length of the wrapper text in front of the input in the unit that was parsed
+	private final int offset;
+
+	Snippet(String input, Kind kind, boolean staticField, boolean block, List<? extends Tree> trees,
+			CompilationUnitTree unit, SourcePositions positions, int offset) {
+		this.input = input;
+		this.kind = kind;
+		this.staticField = staticField;
+		this.block = block;
+		this.trees = trees;
+		this.unit = unit;
+		this.positions = positions;
+		this.offset = offset;
+	}
+
+	// Classified without a parse tree
+	Snippet(String input, Kind kind, boolean staticField, boolean block) {
+		this(input, kind, staticField, block, Collections.emptyList(), null, null, 0);
+	}
+
+	String getInput() {
+		return input;
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	boolean isParsed() {
+		return unit != null;
+	}
+
+	// A class-level declaration with the static modifier, kept as a field of Eval
+	boolean isStaticField() {
+		return staticField;
+	}
+
+	// Statements that have to run as a block: several of them, or a control-flow statement or block
+	boolean isBlock() {
+		return block;
+	}
+
+	// Imports and classes, statements, members, or the expression, in source order
+	List<? extends Tree> getTrees() {
+		return trees;
+	}
+
+	// The only top-level tree, with an expression statement unwrapped; null if there is not exactly one
+	Tree single() {
+		if (trees.size() != 1) {
+			return null;
+		}
+		Tree tree = trees.get(0);
+		return tree instanceof ExpressionStatementTree ? ((ExpressionStatementTree) tree).getExpression() : tree;
+	}
+
+	int start(Tree tree) {
+		return (int) positions.getStartPosition(unit, tree) - offset;
+	}
+
+	int end(Tree tree) {
+		return (int) positions.getEndPosition(unit, tree) - offset;
+	}
+
+	// Input text a tree was parsed from
+	String source(Tree tree) {
+		return input.substring(start(tree), end(tree));
+	}
+}
@@ -0,0 +1,68 @@
+package com.padlocks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Bounded LRU cache of compiled wrapper bytecode, keyed by a digest of the source and what it was compiled against
+class SnippetCache {
+	private final Map<String, CachedClass> entries;
+	private long hits;
+	private long misses;
+
+	private static class CachedClass {
+		final Map<String, byte[]> classBytes;
+		final Set<String> dependencies;
+
+		CachedClass(Map<String, byte[]> classBytes, Set<String> dependencies) {
+			this.classBytes = classBytes;
+			this.dependencies = dependencies;
+		}
+	}
+
+	SnippetCache(int capacity) {
+		this.entries = new LinkedHashMap<String, CachedClass>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedClass> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	// Bytecode of the wrapper and its nested classes, or null
+	Map<String, byte[]> get(String key) {
+		CachedClass cached = entries.get(key);
+		if (cached == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return cached.classBytes;
+	}
+
+	// Checks for an entry without counting a hit or miss
+	boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+
+	void put(String key, Map<String, byte[]> classBytes, Set<String> dependencies) {
+		entries.put(key, new CachedClass(classBytes, dependencies));
+	}
+
+	// Drop every class that was compiled against the given unit
+	void invalidate(String unit) {
+		entries.values().removeIf(entry -> entry.dependencies.contains(unit));
+	}
+
+	void clear() {
+		entries.clear();
+	}
+
+	long getHits() {
+		return hits;
+	}
+
+	long getMisses() {
+		return misses;
+	}
+}
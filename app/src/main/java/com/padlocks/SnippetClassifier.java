@@ -0,0 +1,217 @@
+package com.padlocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.Modifier;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionStatementTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ParenthesizedTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.Trees;
+
+// Classifies input by the first of four javac parses that accepts it: compilation unit, expression, method
+// body and class body; input none accepts falls back to Parser's heuristics
+class SnippetClassifier {
+	// Wrapper text around the input for each reading; the prefix length maps tree positions back into the input
+	private static final String[] PREFIXES = {
+		"", "class $Snippet { Object $value = (\n", "class $Snippet { void $run() {\n", "class $Snippet {\n"
+	};
+	private static final String[] SUFFIXES = { "", "\n); }", "\n} }", "\n}" };
+	private static final int UNIT = 0;
+	private static final int EXPRESSION = 1;
+	private static final int STATEMENTS = 2;
+	private static final int MEMBERS = 3;
+	private static final int RECENT = 2;
+
+	private final Parser parser;
+	private final CompilerPool pool;
+	private final Map<String, Snippet> recent = new LinkedHashMap<String, Snippet>(RECENT * 2, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Snippet> eldest) {
+			return size() > RECENT;
+		}
+	};
+	private final Map<Snippet.Kind, Long> kinds = new EnumMap<>(Snippet.Kind.class);
+	private long classified;
+	private long classifyNanos;
+	private long reused;
+	private long byHeuristics;
+
+	SnippetClassifier(Parser parser, CompilerPool pool) {
+		this.parser = parser;
+		this.pool = pool;
+	}
+
+	synchronized Snippet classify(String input) {
+		Snippet snippet = recent.get(input);
+		if (snippet != null) {
+			reused++;
+			return snippet;
+		}
+		long start = System.nanoTime();
+		snippet = parse(input);
+		if (snippet == null) {
+			snippet = heuristics(input);
+			byHeuristics++;
+		}
+		classifyNanos += System.nanoTime() - start;
+		classified++;
+		kinds.merge(snippet.getKind(), 1L, Long::sum);
+		recent.put(input, snippet);
+		return snippet;
+	}
+
+	// Loads the javac parser ahead of the first submission
+	synchronized void warmUp() {
+		parse("int warmUp = 0;");
+	}
+
+	synchronized String getStatistics() {
+		StringBuilder statistics = new StringBuilder(String.format("Classifier: %d snippets, average %.2f ms, %d reused, %d by heuristics",
+			classified, classified == 0 ? 0 : classifyNanos / 1e6 / classified, reused, byHeuristics));
+		String separator = " (";
+		for (Map.Entry<Snippet.Kind, Long> kind : kinds.entrySet()) {
+			statistics.append(separator).append(kind.getKey().name().toLowerCase()).append(' ').append(kind.getValue());
+			separator = ", ";
+		}
+		return statistics.append(kinds.isEmpty() ? "" : ")").toString();
+	}
+
+	private Snippet parse(String input) {
+		List<JavaFileObject> sources = new ArrayList<>();
+		for (int i = 0; i < PREFIXES.length; i++) {
+			sources.add(MemoryFileManager.source("Reading" + i + ".java", PREFIXES[i] + input + SUFFIXES[i]));
+		}
+		boolean[] rejected = new boolean[PREFIXES.length];
+		// Parsing reads no classes; the file manager is borrowed so that sessions do not each keep one open
+		MemoryFileManager fileManager;
+		try {
+			fileManager = pool.acquire(Collections.emptyMap());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		JavacTask task = (JavacTask) pool.getJavac().getTask(null, fileManager, diagnostic -> {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				rejected[reading(diagnostic.getSource())] = true;
+			}
+		}, Arrays.asList("-proc:none"), null, sources);
+
+		CompilationUnitTree[] units = new CompilationUnitTree[PREFIXES.length];
+		try {
+			for (CompilationUnitTree unit : task.parse()) {
+				units[reading(unit.getSourceFile())] = unit;
+			}
+		} catch (Exception e) {
+			// Leave it to the heuristics
+			return null;
+		} finally {
+			pool.release(fileManager);
+		}
+		SourcePositions positions = Trees.instance(task).getSourcePositions();
+
+		for (int reading = 0; reading < units.length; reading++) {
+			CompilationUnitTree unit = units[reading];
+			if (unit == null || rejected[reading]) {
+				continue;
+			}
+			Snippet snippet = read(input, reading, unit, positions);
+			if (snippet != null) {
+				return snippet;
+			}
+		}
+		return null;
+	}
+
+	// javac hands back its own wrappers of the sources, so readings are told apart by file name
+	private static int reading(JavaFileObject file) {
+		for (int i = 0; i < PREFIXES.length; i++) {
+			if (file.isNameCompatible("Reading" + i, JavaFileObject.Kind.SOURCE)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(file.getName());
+	}
+
+	// The snippet a reading that parsed cleanly stands for, or null if the reading does not fit the input
+	private static Snippet read(String input, int reading, CompilationUnitTree unit, SourcePositions positions) {
+		int offset = PREFIXES[reading].length();
+		if (reading == UNIT) {
+			List<Tree> trees = new ArrayList<>(unit.getImports());
+			for (Tree type : unit.getTypeDecls()) {
+				if (type instanceof ClassTree) {
+					trees.add(type);
+				} else if (type.getKind() != Tree.Kind.EMPTY_STATEMENT) {
+					return null;
+				}
+			}
+			if (trees.isEmpty() || unit.getPackageName() != null) {
+				return null;
+			}
+			Snippet.Kind kind = unit.getImports().isEmpty() ? Snippet.Kind.CLASS : Snippet.Kind.IMPORT;
+			return new Snippet(input, kind, false, false, trees, unit, positions, offset);
+		}
+
+		List<? extends Tree> members = ((ClassTree) unit.getTypeDecls().get(0)).getMembers();
+		if (reading == EXPRESSION) {
+			Tree value = ((ParenthesizedTree) ((VariableTree) members.get(0)).getInitializer()).getExpression();
+			return new Snippet(input, Snippet.Kind.EXPRESSION, false, false, Arrays.asList(value), unit, positions, offset);
+		}
+		if (reading == STATEMENTS) {
+			List<? extends StatementTree> statements = ((MethodTree) members.get(0)).getBody().getStatements();
+			Tree only = statements.size() == 1 ? statements.get(0) : null;
+			Snippet.Kind kind = only instanceof VariableTree ? Snippet.Kind.DECLARATION : Snippet.Kind.STATEMENT;
+			boolean block = only == null || !(only instanceof VariableTree || only instanceof ExpressionStatementTree);
+			return new Snippet(input, kind, false, block, statements, unit, positions, offset);
+		}
+
+		// Class body: methods, or one field
+		boolean methods = !members.isEmpty();
+		for (Tree member : members) {
+			methods &= member instanceof MethodTree;
+		}
+		if (methods) {
+			return new Snippet(input, Snippet.Kind.METHOD, false, false, members, unit, positions, offset);
+		}
+		if (members.size() == 1 && members.get(0) instanceof VariableTree) {
+			boolean isStatic = ((VariableTree) members.get(0)).getModifiers().getFlags().contains(Modifier.STATIC);
+			return new Snippet(input, Snippet.Kind.DECLARATION, isStatic, false, members, unit, positions, offset);
+		}
+		return null;
+	}
+
+	// The string checks input was classified with before it had a parse tree
+	private Snippet heuristics(String input) {
+		if (parser.isImport(input)) {
+			return new Snippet(input, Snippet.Kind.IMPORT, false, false);
+		} else if (parser.isClass(input)) {
+			return new Snippet(input, Snippet.Kind.CLASS, false, false);
+		} else if (parser.isStaticVariable(input)) {
+			return new Snippet(input, Snippet.Kind.DECLARATION, true, false);
+		} else if (parser.isStatementBlock(input)) {
+			return new Snippet(input, Snippet.Kind.STATEMENT, false, true);
+		} else if (parser.isStatement(input)) {
+			return new Snippet(input, Snippet.Kind.STATEMENT, false, false);
+		} else if (parser.isExpression(input)) {
+			return new Snippet(input, Snippet.Kind.EXPRESSION, false, false);
+		} else if (parser.isMethod(input)) {
+			return new Snippet(input, Snippet.Kind.METHOD, false, false);
+		}
+		return new Snippet(input, Snippet.Kind.STATEMENT, false, true);
+	}
+}
@@ -0,0 +1,52 @@
+package com.padlocks;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// Edits made to the user's text before it is compiled, and the mapping of positions back onto that text
+class SourceEdits {
+	private final TreeMap<Integer, Edit> edits = new TreeMap<>();
+
+	private static class Edit {
+		final int length;
+		final String text;
+
+		Edit(int length, String text) {
+			this.length = length;
+			this.text = text;
+		}
+	}
+
+	void insert(int position, String text) {
+		edits.put(position, new Edit(0, text));
+	}
+
+	void replace(int position, int length, String text) {
+		edits.put(position, new Edit(length, text));
+	}
+
+	String apply(String text) {
+		StringBuilder result = new StringBuilder(text);
+		// Last first, so the positions of earlier edits still hold
+		for (Map.Entry<Integer, Edit> edit : edits.descendingMap().entrySet()) {
+			int position = edit.getKey();
+			result.replace(position, position + edit.getValue().length, edit.getValue().text);
+		}
+		return result.toString();
+	}
+
+	// Position in the text of a position in the result; one inside inserted text maps to where it was inserted
+	int original(int position) {
+		int shift = 0;
+		for (Map.Entry<Integer, Edit> edit : edits.entrySet()) {
+			int start = edit.getKey() + shift;
+			if (position < start) {
+				break;
+			} else if (position < start + edit.getValue().text.length()) {
+				return edit.getKey();
+			}
+			shift += edit.getValue().text.length() - edit.getValue().length;
+		}
+		return position - shift;
+	}
+}
@@ -1,17 +1,26 @@
 package com.padlocks;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 public class State {
+    // Wrappers the evaluator generates; not something to offer for completion
+    private static final Set<String> GENERATED_CLASSES = new HashSet<>(Arrays.asList(
+        "Eval", "ExpressionEvaluator", "DynamicMethodEvaluator", "StatementEvaluator"
+    ));
+
     private final Map<String, Variable> storedVariables = new HashMap<>();
     private final Set<String> storedImports = new HashSet<>();
     private final Map<String, Class<?>> compiledClasses = new HashMap<>();
     private final Map<String, Method> compiledMethods = new HashMap<>();
     private final Map<String, String> classSources = new HashMap<>();
+    private final CallSiteCache callSites = new CallSiteCache();
+    // Names of the variables, classes and methods above, kept for completion as they are defined
+    private final SymbolIndex symbols = new SymbolIndex();
     private SourceCode code = new SourceCode();
 
     public StringBuilder getCode() {
@@ -32,7 +41,9 @@ public class State {
 
     // Variable Management
     public void addStoredVariable(String name, Variable variable) {
-        storedVariables.put(name, variable);
+        if (storedVariables.put(name, variable) == null) {
+            symbols.add(name);
+        }
     }
 
     public Variable getStoredVariable(String name) {
@@ -54,7 +65,21 @@ public class State {
 
     // Compiled Class Management
     public void addCompiledClass(String name, Class<?> clazz, String sourceCode) {
-        compiledClasses.put(name, clazz);
+        // Drop methods, members and call sites of the superseded class so its generation can be unloaded
+        Class<?> previous = compiledClasses.put(name, clazz);
+        if (previous != null) {
+            compiledMethods.keySet().removeIf(methodName -> {
+                if (!methodName.startsWith(name + ".")) {
+                    return false;
+                }
+                forgetMethodSymbol(methodName);
+                return true;
+            });
+            MemberIndex.forget(previous);
+        } else if (!GENERATED_CLASSES.contains(name)) {
+            symbols.add(name);
+        }
+        callSites.invalidate(previous);
         classSources.put(name, sourceCode);
     }
 
@@ -68,7 +93,21 @@ public class State {
 
     // Compiled Method Management
     public void addCompiledMethod(String name, Method method) {
-        compiledMethods.put(name, method);
+        if (compiledMethods.put(name, method) == null && isSessionMethod(name, method)) {
+            symbols.add(name.substring(name.indexOf('.') + 1));
+        }
+    }
+
+    // Methods declared at the prompt live in Eval and are called by their bare name; those of other
+    // classes are completed as members of the class
+    private static boolean isSessionMethod(String name, Method method) {
+        return name.startsWith("Eval.") && !method.isSynthetic() && !method.getName().equals("main");
+    }
+
+    private void forgetMethodSymbol(String name) {
+        if (isSessionMethod(name, compiledMethods.get(name))) {
+            symbols.remove(name.substring(name.indexOf('.') + 1));
+        }
     }
 
     public Method getCompiledMethod(String name) {
@@ -79,6 +118,14 @@ public class State {
         return compiledMethods;
     }
 
+    CallSiteCache getCallSites() {
+        return callSites;
+    }
+
+    SymbolIndex getSymbols() {
+        return symbols;
+    }
+
     // Source Code Management
     public void setClassSource(String className, String sourceCode) {
         classSources.put(className, sourceCode);
@@ -94,6 +141,8 @@ public class State {
         compiledClasses.clear();
         compiledMethods.clear();
         classSources.clear();
+        callSites.clear();
+        symbols.clear();
         code = new SourceCode();
     }
 
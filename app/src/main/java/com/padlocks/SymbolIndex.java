@@ -0,0 +1,49 @@
+package com.padlocks;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// Sorted, counted set of names for completion, queried by prefix
+class SymbolIndex {
+	private final TreeMap<String, Integer> names = new TreeMap<>();
+
+	SymbolIndex() {
+	}
+
+	SymbolIndex(Collection<String> names) {
+		for (String name : names) {
+			add(name);
+		}
+	}
+
+	synchronized void add(String name) {
+		names.merge(name, 1, Integer::sum);
+	}
+
+	synchronized void remove(String name) {
+		names.computeIfPresent(name, (key, count) -> count > 1 ? count - 1 : null);
+	}
+
+	synchronized void clear() {
+		names.clear();
+	}
+
+	synchronized int size() {
+		return names.size();
+	}
+
+	// Passes the names starting with prefix to consumer in order, at most limit of them; returns how many it passed
+	synchronized int complete(String prefix, int limit, Consumer<String> consumer) {
+		int count = 0;
+		for (Map.Entry<String, Integer> entry : names.tailMap(prefix, true).entrySet()) {
+			if (count == limit || !entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			consumer.accept(entry.getKey());
+			count++;
+		}
+		return count;
+	}
+}
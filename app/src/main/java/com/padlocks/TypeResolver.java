@@ -0,0 +1,91 @@
+package com.padlocks;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+// Resolves a type as written in the session to its class as a snippet would see it, or null
+class TypeResolver {
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+	static {
+		for (Class<?> primitive : new Class<?>[] { boolean.class, byte.class, short.class, char.class, int.class,
+				long.class, float.class, double.class, void.class }) {
+			PRIMITIVES.put(primitive.getName(), primitive);
+		}
+	}
+
+	private TypeResolver() {
+	}
+
+	static Class<?> resolve(State state, String type) {
+		String name = erase(type).replace(" ", "");
+		int dimensions = 0;
+		while (name.endsWith("[]")) {
+			dimensions++;
+			name = name.substring(0, name.length() - 2);
+		}
+		Class<?> resolved = PRIMITIVES.containsKey(name) ? PRIMITIVES.get(name) : resolveClass(state, name);
+		for (; resolved != null && dimensions > 0; dimensions--) {
+			resolved = Array.newInstance(resolved, 0).getClass();
+		}
+		return resolved;
+	}
+
+	// A session class, or a class the name refers to in the session's scope
+	static Class<?> resolveClass(State state, String name) {
+		Class<?> type = state.getCompiledClass(name);
+		if (type != null) {
+			return type;
+		}
+		type = load(name);
+		if (type == null && name.indexOf('.') == -1) {
+			type = load("java.lang." + name);
+			for (String statement : state.getStoredImports()) {
+				if (type != null) {
+					break;
+				}
+				String imported = statement.replace("import", "").replace(";", "").trim();
+				if (imported.endsWith("." + name)) {
+					type = load(imported);
+				} else if (imported.endsWith(".*")) {
+					type = load(imported.substring(0, imported.length() - 1) + name);
+				}
+			}
+		}
+		return type;
+	}
+
+	// The name as written, or with its last dots taken as nesting, e.g. java.util.Map.Entry
+	private static Class<?> load(String name) {
+		String binaryName = name;
+		while (true) {
+			try {
+				return Class.forName(binaryName, false, TypeResolver.class.getClassLoader());
+			} catch (ClassNotFoundException | LinkageError e) {
+				int dot = binaryName.lastIndexOf('.');
+				if (dot == -1) {
+					return null;
+				}
+				binaryName = binaryName.substring(0, dot) + "$" + binaryName.substring(dot + 1);
+			}
+		}
+	}
+
+	// Drops type arguments, e.g. Map<String, List<Integer>>[] becomes Map[]
+	private static String erase(String type) {
+		StringBuilder erased = new StringBuilder(type.length());
+		int depth = 0;
+		for (int i = 0; i < type.length(); i++) {
+			char c = type.charAt(i);
+			if (c == '<') {
+				depth++;
+			} else if (c == '>') {
+				depth--;
+			} else if (depth == 0) {
+				erased.append(c);
+			}
+		}
+		return erased.toString();
+	}
+}
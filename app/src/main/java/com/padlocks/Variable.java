@@ -1,5 +1,8 @@
 package com.padlocks;
 
+import java.lang.reflect.Field;
+import java.util.regex.Matcher;
+
 public class Variable {
 	public enum AccessLevel {
 		PUBLIC, PRIVATE, PROTECTED, DEFAULT
@@ -43,13 +46,27 @@ public class Variable {
 
 	public void setValue(Object value) {
 		this.value = value;
-		this.input = this.input.replaceFirst("=.*", "= " + value) + ";";
+		this.input = this.input.replaceFirst("=.*", Matcher.quoteReplacement("= " + value)) + ";";
 	}
 
 	public String getInput() {
 		return input;
 	}
 
+	// Field of Eval that holds this variable if it is static, else null
+	Field staticField(Class<?> eval) {
+		if (!isStatic) {
+			return null;
+		}
+		try {
+			Field field = eval.getDeclaredField(name);
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException e) {
+			return null;
+		}
+	}
+
 	@Override
 	public String toString() {
 		return this.getInput();
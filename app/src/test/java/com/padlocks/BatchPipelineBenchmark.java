@@ -0,0 +1,32 @@
+package com.padlocks;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+// Batch run time for javac snippets that each run 100 ms: independent ones, whose wrappers are compiled while the
+// previous snippet runs, against a chain of the same shape where each uses the last one's variable and cannot be
+public class BatchPipelineBenchmark {
+	private static double run(boolean dependent, int count) throws Exception {
+		StringBuilder batch = new StringBuilder("long a0 = 0;\n");
+		for (int i = 1; i <= count; i++) {
+			batch.append("long a").append(i).append(" = ").append(dependent ? "a" + (i - 1) + " + 1" : String.valueOf(i))
+				.append("; java.util.concurrent.locks.LockSupport.parkNanos(100000000L);\n");
+		}
+		BatchRunner runner = new BatchRunner();
+		long start = System.nanoTime();
+		runner.run(new BufferedReader(new StringReader(batch.toString())));
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		Benchmarks.silence();
+		// Warm javac up with one of each first
+		run(false, 5);
+		run(true, 5);
+		double independent = run(false, count);
+		double dependent = run(true, count);
+		Benchmarks.report("%d snippets: independent %.2f s, dependent chain %.2f s, %.1f s of it sleeping", count,
+			independent, dependent, count / 10.0);
+	}
+}
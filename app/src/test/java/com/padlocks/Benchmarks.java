@@ -0,0 +1,43 @@
+package com.padlocks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Helpers for the *Benchmark mains; run one with gradle benchmark -Pbenchmark=<Name> [-PbenchmarkArgs="..."]
+final class Benchmarks {
+	// Keeps results alive so the JIT cannot drop the work
+	static volatile Object sink;
+
+	private static final PrintStream OUT = System.out;
+
+	private Benchmarks() {
+	}
+
+	// Evaluators print every result; benchmarks report through report() only
+	static void silence() {
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	static void report(String format, Object... args) {
+		OUT.printf(format + "%n", args);
+	}
+
+	// Time taken to evaluate the input, in nanoseconds
+	static long time(Evaluator evaluator, String input) throws Exception {
+		long start = System.nanoTime();
+		evaluator.evaluateInput(input);
+		return System.nanoTime() - start;
+	}
+
+	// The given percentile of the times, in milliseconds
+	static double percentile(long[] times, int percent) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1e6;
+	}
+
+	static double median(long[] times) {
+		return percentile(times, 50);
+	}
+}
@@ -0,0 +1,110 @@
+package com.padlocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+// Runs each submission list with the emitter and with javac only, and expects the same variables and output
+public class BytecodeEmitterTest {
+	private static final Pattern EMITTED = Pattern.compile("Emitted snippets: (\\d+)");
+
+	private static class Session {
+		final Map<String, Object> variables = new TreeMap<>();
+		String printed;
+		int emitted;
+	}
+
+	private static Session run(boolean emitBytecode, String... inputs) throws Exception {
+		Evaluator evaluator = new Evaluator(CompilerPool.shared(), emitBytecode);
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		ByteArrayOutputStream stats = new ByteArrayOutputStream();
+		try {
+			System.setOut(new PrintStream(printed, true, "UTF-8"));
+			for (String input : inputs) {
+				evaluator.evaluateInput(input);
+			}
+			System.setOut(new PrintStream(stats, true, "UTF-8"));
+			evaluator.evaluateInput("stats();");
+		} finally {
+			System.setOut(out);
+		}
+		Session session = new Session();
+		for (Map.Entry<String, Variable> variable : evaluator.getState().getStoredVariables().entrySet()) {
+			session.variables.put(variable.getKey(), variable.getValue().getValue());
+		}
+		session.printed = printed.toString("UTF-8");
+		Matcher matcher = EMITTED.matcher(stats.toString("UTF-8"));
+		assertTrue(matcher.find());
+		session.emitted = Integer.parseInt(matcher.group(1));
+		return session;
+	}
+
+	// Compares both backends and returns how many submissions the emitter translated
+	private static int compare(String... inputs) throws Exception {
+		Session emitted = run(true, inputs);
+		Session compiled = run(false, inputs);
+		assertEquals(0, compiled.emitted);
+		assertFalse(compiled.printed, compiled.printed.contains("rror"));
+		assertEquals(compiled.printed, emitted.printed);
+		assertEquals(compiled.variables, emitted.variables);
+		return emitted.emitted;
+	}
+
+	@Test
+	public void integerOverflowWraps() throws Exception {
+		int emitted = compare("int a = 2147483647; a++; a += 1;", "int b = 65536 * 65536 + a;",
+			"long c = 9223372036854775807L; c += 2; long d = 2147483647 + 1; long e = 2147483647 + 1L;",
+			"int f = -2147483648; f--; f = -f;", "int g = 0x7FFFFFFF * 3; long h = 0xFFFFFFFFL * 0xFFFFFFFFL;");
+		assertEquals(3, emitted);
+	}
+
+	@Test
+	public void shiftDistancesAreMasked() throws Exception {
+		int emitted = compare("int s = 1 << 33; int t = -16 >> 2; int u = -16 >>> 28; int v = 1 << -1;",
+			"long w = 1L << 65; long x = -1L >>> 63; long y = 1L << 32; int z = 1 << 32L;",
+			"int p = 3; p <<= 35L; long q = -8; q >>= 65; q >>>= 1; p >>>= 33;");
+		assertEquals(3, emitted);
+	}
+
+	@Test
+	public void compoundAssignmentNarrows() throws Exception {
+		int emitted = compare("int q = 7; q += 1.9; q *= 2.5; q -= 0.1; q /= 0.3;",
+			"int big = 0; big += 3000000000L; long l = 5; l /= 2.0; l *= 1e300;",
+			"int n = 10; n %= 3.5; double d = 1; d += 1L << 62; long m = 1; m += 1e19;",
+			"boolean b = true; b &= false; b |= true; b ^= true;");
+		assertEquals(4, emitted);
+	}
+
+	@Test
+	public void incrementsInsideAnExpression() throws Exception {
+		compare("int m = 1; int r = m++ + ++m;", "long k = 5; long s = k-- - --k + k;", "int i = 0; i = i++ + i++;");
+	}
+
+	@Test
+	public void breakAndContinueInNestedLoops() throws Exception {
+		int emitted = compare("int z = 0; for (int i = 0; i < 5; i++) for (int j = 0; j < 5; j++) { if (j > i) break; z++; }",
+			"long sum = 0; for (int i = 0; i < 20; i++) { if (i % 3 == 0) continue; if (i > 15) break; sum += i; }",
+			"int k = 0; int w = 0; while (k < 100) { k += 7; if (k % 2 == 0) continue; w++; if (k > 50) break; }",
+			"int v = 0; for (int i = 0; i < 4; i++) { int j = 0; while (true) { j++; if (j > i) break; v += j; } }");
+		assertEquals(3, emitted);
+	}
+
+	@Test
+	public void nanComparisonsAndConversions() throws Exception {
+		int emitted = compare("double nan = 0.0 / 0; boolean lt = nan < 1; boolean ge = nan >= 1; boolean eq = nan == nan;",
+			"boolean ne = nan != nan; boolean notLt = !(nan < 1); boolean gt = nan > nan || nan <= nan;",
+			"int i = (int) nan; long l = (long) nan; long inf = (long) (1.0 / 0); int neg = (int) (-1.0 / 0);",
+			"int count = 0; while (!(nan >= count)) { count++; if (count > 3) break; }");
+		assertEquals(4, emitted);
+	}
+}
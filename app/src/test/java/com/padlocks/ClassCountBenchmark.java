@@ -0,0 +1,39 @@
+package com.padlocks;
+
+// Median expression latency as the session fills with classes of 40 methods each, e.g. -PbenchmarkArgs=100 for up to 100
+public class ClassCountBenchmark {
+	private static final int STEP = 25;
+
+	private static String declaration(int index) {
+		StringBuilder source = new StringBuilder("public class C" + index + " {");
+		for (int m = 0; m < 40; m++) {
+			source.append(" public int v").append(m).append("(int a) { int s = 0; for (int i = 0; i < a; i++) { s += i * ")
+				.append(m).append("; } return s; }");
+		}
+		return source.append(" }").toString();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int classes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		Benchmarks.silence();
+		Evaluator evaluator = new Evaluator();
+		evaluator.evaluateInput("int x = 5;");
+		for (int i = 0; i < 30; i++) {
+			evaluator.evaluateInput("x > 0 ? x + " + i + " : 0");
+		}
+		for (int defined = 0; ; defined += STEP) {
+			long[] times = new long[10];
+			for (int i = 0; i < times.length; i++) {
+				// A conditional, so the interpreter leaves it to javac
+				times[i] = Benchmarks.time(evaluator, "x > 0 ? x * " + (defined * 100 + i) + " + 1 : 0");
+			}
+			Benchmarks.report("%d classes: median eval %.1f ms", defined, Benchmarks.median(times));
+			if (defined >= classes) {
+				break;
+			}
+			for (int c = defined; c < defined + STEP; c++) {
+				evaluator.evaluateInput(declaration(c));
+			}
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.padlocks;
+
+import java.util.Arrays;
+
+// Latency of the first and of later compiled expressions in one session, e.g. -PbenchmarkArgs=40 for 40 expressions
+public class CompileLatencyBenchmark {
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		Benchmarks.silence();
+		Evaluator evaluator = new Evaluator();
+		evaluator.evaluateInput("int x = 5;");
+		long[] times = new long[count];
+		for (int i = 0; i < count; i++) {
+			// A conditional, so the interpreter leaves it to javac
+			times[i] = Benchmarks.time(evaluator, "x > 0 ? x * " + i + " + 1 : 0");
+		}
+		long[] steady = Arrays.copyOfRange(times, count / 2, count);
+		Benchmarks.report("first %.1f ms, steady-state median %.1f ms, p90 %.1f ms", times[0] / 1e6,
+			Benchmarks.median(steady), Benchmarks.percentile(steady, 90));
+	}
+}
@@ -0,0 +1,29 @@
+package com.padlocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+// Average wrapper compile time over distinct compiled expressions. Compare with javac's defaults by
+// running with -Drepl.javac.snippet= (no options).
+public class CompileProfileBenchmark {
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		Benchmarks.silence();
+		Evaluator evaluator = new Evaluator();
+		evaluator.evaluateInput("int x = 5;");
+		for (int i = 0; i < count; i++) {
+			// A conditional, so the interpreter leaves it to javac
+			evaluator.evaluateInput("x > 0 ? x * " + i + " + 1 : 0");
+		}
+		ByteArrayOutputStream stats = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(stats, true, "UTF-8"));
+		evaluator.evaluateInput("stats();");
+		String options = System.getProperty("repl.javac.snippet", "(profile defaults)");
+		Benchmarks.report("snippet options: %s", options.trim().isEmpty() ? "(none)" : options);
+		for (String line : stats.toString("UTF-8").split("\n")) {
+			if (line.startsWith("Compilations") || line.contains("profile:")) {
+				Benchmarks.report("%s", line);
+			}
+		}
+	}
+}
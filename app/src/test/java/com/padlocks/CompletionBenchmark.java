@@ -0,0 +1,47 @@
+package com.padlocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jline.reader.Candidate;
+import org.jline.reader.impl.DefaultParser;
+
+// Tab latency with 50,000 session variables indexed, over short prefixes and member lookups; the first round is cold
+public class CompletionBenchmark {
+	private static final String[] WORDS = { "", "a", "b", "ab", "abc", "f", "fz", "c", "de", "i", "in", "text.", "text.s",
+		"Math.", "String.v", "xyz", "e1", "d" };
+
+	public static void main(String[] args) {
+		State state = new State();
+		Random random = new Random(7);
+		long start = System.nanoTime();
+		for (int i = 0; i < 50_000; i++) {
+			StringBuilder name = new StringBuilder();
+			int length = 3 + random.nextInt(10);
+			for (int j = 0; j < length; j++) {
+				name.append((char) ('a' + random.nextInt(j == 0 ? 6 : 26)));
+			}
+			name.append(i);
+			state.addStoredVariable(name.toString(), new Variable(Variable.AccessLevel.DEFAULT, false, name.toString(), "int", i, ""));
+		}
+		state.addStoredVariable("text", new Variable(Variable.AccessLevel.DEFAULT, false, "text", "String", "abc", ""));
+		Benchmarks.report("indexed %d symbols in %.1f ms", state.getSymbols().size(), (System.nanoTime() - start) / 1e6);
+
+		JavaCompleter completer = new JavaCompleter(state);
+		DefaultParser parser = new DefaultParser();
+		for (int round = 0; round < 2; round++) {
+			long[] times = new long[20_000];
+			for (int i = 0; i < times.length; i++) {
+				String word = WORDS[i % WORDS.length];
+				List<Candidate> candidates = new ArrayList<>();
+				start = System.nanoTime();
+				completer.complete(null, parser.parse(word, word.length()), candidates);
+				times[i] = System.nanoTime() - start;
+				Benchmarks.sink = candidates;
+			}
+			Benchmarks.report("%s: p50 %.3f ms, p99 %.3f ms", round == 0 ? "cold" : "warm", Benchmarks.median(times),
+				Benchmarks.percentile(times, 99));
+		}
+	}
+}
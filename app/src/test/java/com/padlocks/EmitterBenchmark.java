@@ -0,0 +1,25 @@
+package com.padlocks;
+
+// Statement snippet latency and a long loop's run time, with the bytecode emitter and with javac only
+public class EmitterBenchmark {
+	private static void run(boolean emitBytecode) throws Exception {
+		Evaluator evaluator = new Evaluator(CompilerPool.shared(), emitBytecode);
+		evaluator.evaluateInput("long total = 0;");
+		long[] times = new long[40];
+		for (int k = 0; k < 50; k++) {
+			long time = Benchmarks.time(evaluator, "for (int i = 0; i < " + (10 + k) + "; i++) { total += i; }");
+			if (k >= 10) {
+				times[k - 10] = time;
+			}
+		}
+		long loop = Benchmarks.time(evaluator, "for (int i = 0; i < 300000000; i++) { total += i % 7; }");
+		Benchmarks.report("%-7s small loop snippet median %.3f ms, 300M-iteration loop %.0f ms",
+			emitBytecode ? "emitted" : "javac", Benchmarks.median(times), loop / 1e6);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Benchmarks.silence();
+		run(false);
+		run(true);
+	}
+}
@@ -0,0 +1,131 @@
+package com.padlocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class EvaluatorTest {
+	// Evaluates each input in one session and returns everything printed
+	private static String run(String... inputs) throws Exception {
+		Evaluator evaluator = new Evaluator();
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed, true, "UTF-8"));
+		try {
+			for (String input : inputs) {
+				evaluator.evaluateInput(input);
+			}
+		} finally {
+			System.setOut(out);
+		}
+		return printed.toString("UTF-8");
+	}
+
+	private static String lastResult(String printed) {
+		int start = printed.lastIndexOf("Result: ");
+		return start == -1 ? null : printed.substring(start + "Result: ".length()).trim();
+	}
+
+	@Test
+	public void packagePrivateStaticFieldOfSessionClass() throws Exception {
+		String printed = run("class Foo { static int CONST = 4; }", "Foo.CONST");
+		assertFalse(printed, printed.contains("IllegalAccessError"));
+		assertEquals("4", lastResult(printed));
+	}
+
+	@Test
+	public void packagePrivateMethodOnStoredInstance() throws Exception {
+		String printed = run("class Foo { int v = 7; int get() { return v; } }", "Foo f = new Foo();", "f.get()");
+		assertFalse(printed, printed.contains("IllegalAccessError"));
+		assertEquals("7", lastResult(printed));
+	}
+
+	@Test
+	public void packagePrivateFieldOnStoredInstance() throws Exception {
+		assertEquals("7", lastResult(run("class Foo { int v = 7; }", "Foo f = new Foo();", "f.v + 0")));
+	}
+
+	@Test
+	public void classExtendsPackagePrivateClassOfEarlierSubmission() throws Exception {
+		String printed = run("class Foo { int get() { return 1; } }", "class Bar extends Foo { int get() { return 2; } }",
+			"new Bar().get() + 0");
+		assertEquals("2", lastResult(printed));
+	}
+
+	@Test
+	public void protectedMemberAndGenericMethod() throws Exception {
+		String declared = "class Foo { protected int p = 3; <T> T id(T t) { return t; } }";
+		assertEquals("3", lastResult(run(declared, "Foo f = new Foo();", "f.p")));
+		assertEquals("5", lastResult(run(declared, "Foo f = new Foo();", "f.id(5)")));
+	}
+
+	@Test
+	public void methodReadsStaticVariable() throws Exception {
+		assertEquals("5", lastResult(run("static int counter = 5;", "public int get() { return counter; }", "get()")));
+	}
+
+	@Test
+	public void staticVariableChangedByMethodSurvivesNewEval() throws Exception {
+		String printed = run("static int counter = 5;", "void inc() { counter++; }", "inc()",
+			"public int get() { return counter; }", "get()");
+		assertEquals("6", lastResult(printed));
+	}
+
+	@Test
+	public void overloadChosenByDeclaredTypeOfArgument() throws Exception {
+		String declared = "class O { String n(Object x) { return \"obj\"; } String n(String x) { return \"str\"; } }";
+		assertEquals("obj", lastResult(run(declared, "O o = new O();", "Object q = \"s\";", "o.n(q)")));
+		assertEquals("str", lastResult(run(declared, "O o = new O();", "String q = \"s\";", "o.n(q)")));
+		assertEquals("obj", lastResult(run(declared, "O o = new O();", "Object q = null;", "o.n(q)")));
+	}
+
+	@Test
+	public void overloadChosenByPrimitiveOrWrapperDeclaration() throws Exception {
+		String declared = "class O { String m(long v) { return \"long\"; } String m(Integer v) { return \"Integer\"; } }";
+		assertEquals("long", lastResult(run(declared, "O o = new O();", "int i = 3;", "o.m(i)")));
+		assertEquals("Integer", lastResult(run(declared, "O o = new O();", "Integer i = 3;", "o.m(i)")));
+	}
+
+	@Test
+	public void sessionMethodCalledWithSessionVariable() throws Exception {
+		String printed = run("int x = 5;", "public int sq(int a){ return a*a; }", "sq(x)");
+		assertFalse(printed, printed.contains("ClassCastException"));
+		assertEquals("25", lastResult(printed));
+		assertEquals("long", lastResult(run("long v = 3;", "String m(long a) { return \"long\"; }", "m(v)")));
+	}
+
+	@Test
+	public void lambdaDeclarationTakesDeclaredType() throws Exception {
+		String printed = run("Runnable r = () -> System.out.println(\"hi\");", "r.run()");
+		assertFalse(printed, printed.contains("not a functional interface"));
+		assertTrue(printed, printed.contains("hi"));
+		assertEquals("4", lastResult(run("import java.util.function.*;", "IntUnaryOperator op = v -> v + 1;",
+			"op.applyAsInt(3)")));
+	}
+
+	@Test
+	public void methodReferenceAndArrayInitializerTakeDeclaredType() throws Exception {
+		assertEquals("3", lastResult(run("java.util.function.ToIntFunction<String> len = String::length;",
+			"len.applyAsInt(\"abc\")")));
+		assertEquals("2", lastResult(run("int[] values = {1, 2};", "values[1]")));
+	}
+
+	@Test
+	public void errorInInputThatAlsoAppearsInWrapperIsRelativeToInput() throws Exception {
+		String printed = run("public");
+		assertTrue(printed, printed.contains("line 1, column 1: illegal start of expression"));
+	}
+
+	@Test
+	public void errorColumnsIgnoreAddedModifiers() throws Exception {
+		String printed = run("class Bar { protected int p; }  class Baz { int b = true; }");
+		assertTrue(printed, printed.contains("line 1, column 53: incompatible types"));
+		printed = run("int g() { int k = 0; return zzz; }");
+		assertTrue(printed, printed.contains("line 1, column 29: cannot find symbol"));
+	}
+}
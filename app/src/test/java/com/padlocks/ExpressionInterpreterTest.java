@@ -0,0 +1,41 @@
+package com.padlocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+public class ExpressionInterpreterTest {
+	private final State state = new State();
+	private final ExpressionInterpreter interpreter = new ExpressionInterpreter(state);
+
+	private Object evaluate(String source) throws Exception {
+		ExpressionInterpreter.Expression expression = interpreter.parse(source);
+		assertNotNull(source, expression);
+		return expression.evaluate();
+	}
+
+	@Test
+	public void stringLiteralsAreInterned() throws Exception {
+		assertEquals(true, evaluate("\"abc\" == \"abc\""));
+	}
+
+	@Test
+	public void constantConcatenationIsInterned() throws Exception {
+		assertEquals(true, evaluate("\"a\" + \"bc\" == \"abc\""));
+		assertEquals(true, evaluate("\"a\" + (1 + 2) == \"a3\""));
+		assertEquals(true, evaluate("(char) 65 + \"x\" == \"Ax\""));
+	}
+
+	@Test
+	public void concatenationWithVariableOrNullIsNotConstant() throws Exception {
+		state.addStoredVariable("t", new Variable(Variable.AccessLevel.DEFAULT, false, "t", "String", "ab", "String t = \"ab\";"));
+		assertEquals(false, evaluate("t + \"c\" == \"abc\""));
+		assertEquals(false, evaluate("null + \"a\" == \"nulla\""));
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void divisionByZeroStillThrowsWhenRun() throws Exception {
+		evaluate("1 / 0");
+	}
+}
@@ -0,0 +1,25 @@
+package com.padlocks;
+
+// Median latency of distinct one-line expressions of a few shapes, after warming each shape up
+public class ExpressionLatencyBenchmark {
+	private static final String[] SHAPES = { "1 + %d", "x * %d", "\"a\" + b + %d", "r * r * %d / 2.0",
+		"x > %d && b.length() == 3" };
+
+	public static void main(String[] args) throws Exception {
+		Benchmarks.silence();
+		Evaluator evaluator = new Evaluator();
+		evaluator.evaluateInput("int x = 4;");
+		evaluator.evaluateInput("String b = \"bee\";");
+		evaluator.evaluateInput("double r = 2.5;");
+		for (String shape : SHAPES) {
+			for (int i = 0; i < 5; i++) {
+				evaluator.evaluateInput(String.format(shape, 1000 + i));
+			}
+			long[] times = new long[30];
+			for (int i = 0; i < times.length; i++) {
+				times[i] = Benchmarks.time(evaluator, String.format(shape, i));
+			}
+			Benchmarks.report("%-28s median %.3f ms", shape, Benchmarks.median(times));
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.padlocks;
+
+import org.jline.reader.impl.DefaultHighlighter;
+
+// Time per keystroke typing at the end and in the middle of a buffer, whole-buffer highlighter against the incremental one
+public class HighlighterBenchmark {
+	private static final int KEYS = 200;
+
+	private static double perKey(DefaultHighlighter highlighter, String text, int at) {
+		StringBuilder buffer = new StringBuilder(text);
+		Benchmarks.sink = highlighter.highlight(null, buffer.toString());
+		long start = System.nanoTime();
+		for (int k = 0; k < KEYS; k++) {
+			buffer.insert(at + k, (char) ('a' + k % 26));
+			Benchmarks.sink = highlighter.highlight(null, buffer.toString());
+		}
+		return (System.nanoTime() - start) / 1e6 / KEYS;
+	}
+
+	public static void main(String[] args) {
+		for (int lines : new int[] { 50, 500, 2000 }) {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i <= lines / 12; i++) {
+				text.append(JavaSyntaxHighlighterTest.UNIT);
+			}
+			int end = text.length();
+			int middle = text.length() / 2;
+			// The last of four rounds, once both are compiled
+			for (int round = 0; round < 4; round++) {
+				double fullEnd = perKey(new JavaSyntaxHighlighterTest.FullHighlighter(), text.toString(), end);
+				double incrementalEnd = perKey(new JavaSyntaxHighlighter(), text.toString(), end);
+				double fullMiddle = perKey(new JavaSyntaxHighlighterTest.FullHighlighter(), text.toString(), middle);
+				double incrementalMiddle = perKey(new JavaSyntaxHighlighter(), text.toString(), middle);
+				if (round == 3) {
+					Benchmarks.report("%5d lines: typing at end full %.3f ms incremental %.3f ms; in the middle full %.3f ms incremental %.3f ms",
+						lines, fullEnd, incrementalEnd, fullMiddle, incrementalMiddle);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.padlocks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.jline.reader.LineReader;
+import org.jline.reader.impl.DefaultHighlighter;
+import org.jline.utils.AttributedString;
+import org.jline.utils.AttributedStringBuilder;
+import org.jline.utils.AttributedStyle;
+import org.junit.Test;
+
+// The incremental highlighter must style every buffer exactly as lexing the whole buffer does
+public class JavaSyntaxHighlighterTest {
+	static final String UNIT = "import java.util.*; // imports\n@Override\npublic static int f(int a) throws Exception {\n"
+		+ "  /* block\n   comment */ int x = 0x1F + 'c';\n  String s = \"str // not comment\";\n"
+		+ "  for (int i = 0; i < a; i++) { x += i; }\n  /** doc\n  * more\n  */\n  return x >>> 2;\n}\n";
+	private static final String[] INSERTS = { "/*", "*/", "\n", "\"", "//", "x", " ", "}", "{", "\"\"\"", "'" };
+
+	private final FullHighlighter full = new FullHighlighter();
+	private final JavaSyntaxHighlighter incremental = new JavaSyntaxHighlighter();
+
+	// The highlighter as it was before it kept lines between calls: lexes and styles the whole buffer each time
+	static class FullHighlighter extends DefaultHighlighter {
+		@Override
+		public AttributedString highlight(LineReader reader, String buffer) {
+			AttributedStringBuilder builder = new AttributedStringBuilder();
+			JavaLexer tokens = JavaLexer.lex(buffer);
+			int written = 0;
+			for (int i = 0; i < tokens.size(); i++) {
+				builder.append(buffer.substring(written, tokens.start(i)), AttributedStyle.DEFAULT);
+				builder.append(tokens.text(i), style(tokens, i));
+				written = tokens.end(i);
+			}
+			builder.append(buffer.substring(written), AttributedStyle.DEFAULT);
+			return builder.toAttributedString();
+		}
+
+		private static AttributedStyle style(JavaLexer tokens, int i) {
+			switch (tokens.kind(i)) {
+				case LINE_COMMENT:
+				case BLOCK_COMMENT:
+					return Keywords.commentStyle;
+				case OPERATOR:
+					return Keywords.isOperator(tokens.text(i)) ? Keywords.operatorStyle : AttributedStyle.DEFAULT;
+				case SEPARATOR:
+					return tokens.is(i, '@') && i + 1 < tokens.size() && tokens.kind(i + 1) == JavaLexer.Kind.IDENTIFIER
+						? Keywords.annotationStyle : AttributedStyle.DEFAULT;
+				case IDENTIFIER:
+					break;
+				default:
+					return AttributedStyle.DEFAULT;
+			}
+			String token = tokens.text(i);
+			if (i > 0 && tokens.is(i - 1, '@')) {
+				return Keywords.annotationStyle;
+			} else if (Keywords.isDataType(token)) {
+				return Keywords.dataTypeStyle;
+			} else if (Keywords.isException(token)) {
+				return Keywords.exceptionStyle;
+			} else if (Keywords.isModifier(token)) {
+				return Keywords.modifierStyle;
+			} else if (Keywords.isControlStatement(token)) {
+				return Keywords.controlStatementStyle;
+			}
+			return AttributedStyle.DEFAULT;
+		}
+	}
+
+	private void check(String buffer) {
+		assertEquals(buffer, full.highlight(null, buffer).toAnsi(), incremental.highlight(null, buffer).toAnsi());
+	}
+
+	@Test
+	public void typingCharacterByCharacter() {
+		String text = UNIT + UNIT + UNIT;
+		for (int i = 0; i <= text.length(); i++) {
+			check(text.substring(0, i));
+		}
+	}
+
+	@Test
+	public void randomEditsOpeningAndClosingCommentsAndStrings() {
+		String text = UNIT + UNIT + UNIT;
+		Random random = new Random(1);
+		StringBuilder buffer = new StringBuilder(text);
+		for (int n = 0; n < 5000; n++) {
+			int position = random.nextInt(buffer.length() + 1);
+			if (random.nextBoolean() && buffer.length() > 0) {
+				position = Math.min(position, buffer.length() - 1);
+				buffer.delete(position, position + 1 + random.nextInt(3));
+			} else {
+				buffer.insert(position, INSERTS[random.nextInt(INSERTS.length)]);
+			}
+			check(buffer.toString());
+			if (buffer.length() > 3000) {
+				buffer = new StringBuilder(text);
+			}
+		}
+	}
+}
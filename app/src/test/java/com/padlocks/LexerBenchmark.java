@@ -0,0 +1,62 @@
+package com.padlocks;
+
+// Time spent on the token stream for a 5,000-line paste: lexing it line by line as the input loop does, the
+// Parser calls a class or statement submission makes, and highlighting the whole buffer
+public class LexerBenchmark {
+	public static void main(String[] args) {
+		StringBuilder classes = new StringBuilder("public class Big {\n");
+		StringBuilder statements = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			classes.append("  // method ").append(i).append(" handles {braces}\n");
+			classes.append("  int m").append(i).append("(int a) {\n");
+			classes.append("    String s = \"value {").append(i).append("}\";\n");
+			classes.append("    return a + s.length() * ").append(i).append(";\n");
+			classes.append("  }\n");
+			statements.append("int v").append(i).append(" = ").append(i).append(" + Math.max(1, 2); // note\n");
+			statements.append("if (v").append(i).append(" > 3) { System.out.println(\"x;\" + v").append(i).append("); }\n");
+			statements.append("String t").append(i).append(" = \"a\" + v").append(i).append(";\n");
+			statements.append("/* block */ v").append(i).append("++;\n");
+			statements.append("t").append(i).append(" = t").append(i).append(".trim();\n");
+		}
+		String classPaste = classes.append("}\n").toString();
+		String statementPaste = statements.toString();
+		String[] lines = classPaste.split("\n");
+
+		// The last three of 40 rounds, once everything is compiled
+		for (int round = 0; round < 40; round++) {
+			long start = System.nanoTime();
+			JavaLexer tokens = JavaLexer.lex(lines[0]);
+			for (int i = 1; i < lines.length; i++) {
+				tokens.append("\n").append(lines[i]);
+			}
+			long lineByLine = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Parser parser = new Parser();
+			parser.isImport(classPaste);
+			parser.isClass(classPaste);
+			Benchmarks.sink = parser.separateClasses(classPaste);
+			long classSubmission = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			parser = new Parser();
+			parser.isImport(statementPaste);
+			parser.isClass(statementPaste);
+			parser.isStaticVariable(statementPaste);
+			parser.isStatementBlock(statementPaste);
+			Benchmarks.sink = parser.declaredLocals(statementPaste);
+			Benchmarks.sink = parser.referencedIdentifiers(statementPaste);
+			parser.isMethod(statementPaste);
+			long statementSubmission = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Benchmarks.sink = new JavaSyntaxHighlighter().highlight(null, classPaste);
+			long highlight = System.nanoTime() - start;
+
+			if (round >= 37) {
+				Benchmarks.report("line by line %.2f ms, class submission %.2f ms, statement submission %.2f ms, highlight %.2f ms",
+					lineByLine / 1e6, classSubmission / 1e6, statementSubmission / 1e6, highlight / 1e6);
+			}
+		}
+	}
+}
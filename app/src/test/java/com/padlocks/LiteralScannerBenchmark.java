@@ -0,0 +1,76 @@
+package com.padlocks;
+
+import java.lang.management.ManagementFactory;
+
+// Time and allocation per call of Parser.parseArgument, which reads literals with LiteralScanner, against the
+// regular expressions it used before, for a few kinds of argument
+public class LiteralScannerBenchmark {
+	private static final String[][] ARGUMENTS = { { "42", "-7", "1000" }, { "3.14", "100L", "2.5F" },
+		{ "true", "'c'", "\"hello\"" }, { "someVariable", "java.lang.String", "x" } };
+	private static final String[] KINDS = { "ints", "long/double/float", "boolean/char/string", "names" };
+	private static final int CALLS = 200_000;
+
+	// parseArgument as it was
+	private static Object regex(String arg) {
+		if ("null".equals(arg)) {
+			return null;
+		} else if (arg.matches("-?\\d+")) {
+			return Integer.valueOf(arg);
+		} else if (arg.matches("-?\\d+\\.\\d+")) {
+			return Double.valueOf(arg);
+		} else if (arg.equalsIgnoreCase("true") || arg.equalsIgnoreCase("false")) {
+			return Boolean.valueOf(arg);
+		} else if (arg.matches("-?\\d+L")) {
+			return Long.valueOf(arg.substring(0, arg.length() - 1));
+		} else if (arg.matches("-?\\d+\\.\\d+F")) {
+			return Float.valueOf(arg.substring(0, arg.length() - 1));
+		} else if (arg.matches("-?\\d+S")) {
+			return Short.valueOf(arg.substring(0, arg.length() - 1));
+		} else if (arg.matches("-?\\d+B")) {
+			return Byte.valueOf(arg.substring(0, arg.length() - 1));
+		} else if (arg.startsWith("'") && arg.endsWith("'")) {
+			return arg.charAt(1);
+		} else if (arg.startsWith("\"") && arg.endsWith("\"")) {
+			return arg.substring(1, arg.length() - 1);
+		}
+		try {
+			return Class.forName(arg);
+		} catch (ClassNotFoundException e) {
+			return arg;
+		}
+	}
+
+	private static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static void main(String[] args) {
+		Parser parser = new Parser();
+		// The last three of six rounds, once both are compiled
+		for (int round = 0; round < 6; round++) {
+			for (int kind = 0; kind < ARGUMENTS.length; kind++) {
+				String[] arguments = ARGUMENTS[kind];
+				long bytes = allocated();
+				long start = System.nanoTime();
+				for (int i = 0; i < CALLS; i++) {
+					Benchmarks.sink = regex(arguments[i % arguments.length]);
+				}
+				long regexNanos = System.nanoTime() - start;
+				long regexBytes = allocated() - bytes;
+
+				bytes = allocated();
+				start = System.nanoTime();
+				for (int i = 0; i < CALLS; i++) {
+					Benchmarks.sink = parser.parseArgument(arguments[i % arguments.length]);
+				}
+				long scannerNanos = System.nanoTime() - start;
+				long scannerBytes = allocated() - bytes;
+
+				if (round >= 3) {
+					Benchmarks.report("%-20s regex %7.1f ns %5d B, scanner %6.1f ns %4d B per call", KINDS[kind],
+						(double) regexNanos / CALLS, regexBytes / CALLS, (double) scannerNanos / CALLS, scannerBytes / CALLS);
+				}
+			}
+		}
+	}
+}
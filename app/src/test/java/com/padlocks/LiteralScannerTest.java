@@ -0,0 +1,90 @@
+package com.padlocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class LiteralScannerTest {
+	// Each value is what javac makes of the text, boxed to the literal's type
+	private static void scans(Object... table) {
+		for (int i = 0; i < table.length; i += 2) {
+			String text = (String) table[i];
+			Object expected = table[i + 1];
+			Object scanned = LiteralScanner.scan(text);
+			assertEquals(text, expected, scanned);
+			if (expected != null) {
+				assertSame(text, expected.getClass(), scanned.getClass());
+			}
+		}
+	}
+
+	private static void rejects(String... texts) {
+		for (String text : texts) {
+			assertSame(text, LiteralScanner.NONE, LiteralScanner.scan(text));
+		}
+	}
+
+	@Test
+	public void intLiterals() {
+		scans("0", 0, "42", 42, "-42", -42, "1_000_000", 1_000_000, "0x1F", 0x1F, "0XfF", 0xff, "0b1010", 0b1010,
+			"017", 017, "0_7", 0_7, "2147483647", 2147483647, "-2147483648", -2147483648,
+			"0xFFFFFFFF", 0xFFFFFFFF, "-0x80000000", -0x80000000, "037777777777", 037777777777,
+			"0b11111111111111111111111111111111", 0b11111111111111111111111111111111);
+		rejects("2147483648", "-2147483649", "0x100000000", "09", "1_", "_1", "1__", "0x_1", "0b", "0x", "12a");
+	}
+
+	@Test
+	public void longLiterals() {
+		scans("1_000L", 1_000L, "5L", 5L, "-5l", -5L, "9223372036854775807L", 9223372036854775807L,
+			"-9223372036854775808L", -9223372036854775808L, "0xFFFFFFFFFFFFFFFFl", 0xFFFFFFFFFFFFFFFFL,
+			"01777777777777777777777L", 01777777777777777777777L);
+		rejects("9223372036854775808L", "08L", "1LL", "0x1L2");
+	}
+
+	@Test
+	public void floatingLiterals() {
+		scans("09.5", 09.5, "09e1", 09e1, "00.0", 00.0, "1.5", 1.5, "-1.5", -1.5, "1.", 1., ".5", .5, "1e3", 1e3,
+			"1E-3", 1E-3, "1.5e+10", 1.5e+10, "1d", 1d, "1D", 1D, "4.9e-324", 4.9e-324, "1f", 1f, "1.5F", 1.5F,
+			"3.4028235e38f", 3.4028235e38f, "1_0.2_5", 1_0.2_5, "0x1.8p1", 0x1.8p1, "0x1p-2f", 0x1p-2f, "0x.8p0", 0x.8p0);
+		rejects("1._5", "1_.5", "1e", "1e_3", "0x1.8", "1e400", "3.5e38f", "1.5.5", "1fL");
+	}
+
+	@Test
+	public void floatingLiteralsRoundingToZero() {
+		scans("0e5", 0e5, "0.0f", 0.0f, "-0.0", -0.0, "0x0p3", 0x0p3, "0e-400", 0e-400, "1e-45f", 1e-45f);
+		rejects("1e-400", "1e-400f", "1e-50f", "0.000_1e-330", "0x1p-1100", "-1e-400");
+	}
+
+	@Test
+	public void shortAndByteSuffixes() {
+		scans("5S", (short) 5, "-32768S", (short) -32768, "127B", (byte) 127, "-128B", (byte) -128);
+		rejects("32768S", "128B", "1S2");
+	}
+
+	@Test
+	public void charLiterals() {
+		scans("'a'", 'a', "'\\n'", '\n', "'\\''", '\'', "'\\\\'", '\\', "'\\u0041'", 'A', "'\\uuu0041'", 'A',
+			"'\\101'", 'A', "'\\377'", '\377', "'\\0'", '\0', "'\"'", '"');
+		rejects("''", "'ab'", "'\\q'", "'\\u004'", "'a", "'\\400'");
+	}
+
+	@Test
+	public void stringLiterals() {
+		scans("\"\"", "", "\"abc\"", "abc", "\"a\\tb\"", "a\tb", "\"q\\\"q\"", "q\"q", "\"\\u00e9t\\u00e9\"", "\u00e9t\u00e9",
+			"\"\\1234\"", "\1234", "\"back\\\\\"", "back\\");
+		rejects("\"abc", "\"a\" + \"b\"", "\"abc\\\"", "\"\\q\"", "\"\"\"x\"\"\"");
+	}
+
+	@Test
+	public void stringsAreInterned() {
+		assertSame("abc", LiteralScanner.scan("\"abc\""));
+		assertSame("a\tb", LiteralScanner.scan("\"a\\tb\""));
+	}
+
+	@Test
+	public void keywordsAndOtherText() {
+		scans("null", null, "true", true, "false", false, "TRUE", true);
+		rejects("", "-", "x", "nul", "a.b", "-x", "- 1", "\u0661");
+	}
+}
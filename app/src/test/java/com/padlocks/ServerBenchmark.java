@@ -0,0 +1,53 @@
+package com.padlocks;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+// Requests per second and heap per session for concurrent server sessions, each declaring two variables and then
+// sending an interpreted expression, an emitted loop and a javac statement per round
+public class ServerBenchmark {
+	private static String request(int id, int session, String input) {
+		return "{\"id\": " + id + ", \"session\": \"s" + session + "\", \"input\": \""
+			+ input.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}\n";
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		StringBuilder requests = new StringBuilder();
+		int id = 0;
+		for (int s = 0; s < sessions; s++) {
+			requests.append(request(id++, s, "int x = " + s + ";"));
+			requests.append(request(id++, s, "long t = 0;"));
+		}
+		for (int round = 1; round <= rounds; round++) {
+			for (int s = 0; s < sessions; s++) {
+				requests.append(request(id++, s, "x + " + round));
+				requests.append(request(id++, s, "for (int i = 0; i < 1000; i++) { t = t + i * x; }"));
+				requests.append(request(id++, s, "java.util.List<Integer> l = new java.util.ArrayList<>(); l.add(x + " + round
+					+ "); t = t + l.size();"));
+			}
+		}
+
+		// Output goes into the responses, as when the server runs
+		ReplServer.captureOutput(System.err);
+		new Evaluator().startWarmUp().get();
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		StringWriter out = new StringWriter();
+		long start = System.nanoTime();
+		ReplServer server = new ReplServer();
+		server.serve(new BufferedReader(new StringReader(requests.toString())), out);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		// The sessions stay open until the server goes
+		Benchmarks.sink = server;
+
+		long errors = out.toString().lines().filter(line -> line.contains("Error")).count();
+		Benchmarks.report("%d sessions, %d requests in %.2f s: %.0f requests/s, %d errors, %.1f MB heap per session", sessions,
+			id, seconds, id / seconds, errors, (after - before) / 1e6 / sessions);
+	}
+}